@@ -1,4 +1,9 @@
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 /**
  * @author Brennan Ward
@@ -18,57 +23,124 @@ import java.math.BigInteger;
  */
 public class BombBaby {
 
-	static BigInteger N_ONE = BigInteger.valueOf(-1);
+	static final BigInteger N_ONE = BigInteger.valueOf(-1);
 
 	static String solution(String x, String y) {
-		BigInteger targetMach = new BigInteger(x);
-		BigInteger targetFac = new BigInteger(y);
-		BombNode initial = new BombNode(BigInteger.ZERO, targetMach, targetFac);
-		BigInteger steps = traverse(initial);
-		return steps == N_ONE ? "impossible" : steps.toString();
+		BigInteger steps = traverse(new BigInteger(x), new BigInteger(y));
+		return steps.signum() < 0 ? "impossible" : steps.toString();
 	}
 
 	/**
-	 * We can only solve a node if the two numbers are different.
-	 * So we short-circuit on nodes that are invalid.
+	 * Runs Euclid's algorithm backwards from the target, where each quotient is a run of the same operation.
+	 * The target is reachable only if this ends at a zero and a one, which means (1, 1) was passed one step earlier.
+	 * Both numbers are divided in one divideAndRemainder while they are large, and the rest is finished with longs.
+	 * @return The number of steps, or N_ONE if the target can't be reached.
 	 */
-	static boolean isInvalid(BombNode node) {
-		return (node.fac.equals(BigInteger.ZERO) || node.mach.equals(BigInteger.ZERO)) || !node.fac.equals(BigInteger.ONE) && node.fac.equals(node.mach);
+	static BigInteger traverse(BigInteger mach, BigInteger fac) {
+		if (mach.signum() <= 0 || fac.signum() <= 0) return N_ONE;
+		BigInteger steps = BigInteger.ZERO;
+		//A shared factor wider than a long can zero one side while the other is still wide, so stop there too.
+		while ((mach.bitLength() > 63 || fac.bitLength() > 63) && mach.signum() != 0 && fac.signum() != 0) {
+			boolean machLarger = mach.compareTo(fac) >= 0;
+			BigInteger larger = machLarger ? mach : fac, smaller = machLarger ? fac : mach;
+			//Most quotients are 1, where a subtraction is much cheaper than a division.
+			BigInteger rem = larger.subtract(smaller);
+			if (rem.compareTo(smaller) < 0) steps = steps.add(BigInteger.ONE);
+			else {
+				BigInteger[] qr = larger.divideAndRemainder(smaller);
+				steps = steps.add(qr[0]);
+				rem = qr[1];
+			}
+			if (machLarger) mach = rem;
+			else fac = rem;
+		}
+		if (mach.signum() == 0 || fac.signum() == 0) return mach.add(fac).equals(BigInteger.ONE) ? steps.subtract(BigInteger.ONE) : N_ONE;
+		long rest = traverse(mach.longValue(), fac.longValue());
+		return rest < 0 ? N_ONE : steps.add(BigInteger.valueOf(rest));
 	}
 
-	static BigInteger traverse(BombNode root) {
-		while (true) {
-			BigInteger m = root.mach;
-			BigInteger f = root.fac;
-			if (m.equals(f) && m.equals(BigInteger.ONE)) return root.steps;
-			if (m.compareTo(f) > 0) {
-				root = new BombNode(root.steps.add(m.divide(f)), m.mod(f), f);
+	/**
+	 * The same as {@link #traverse(BigInteger, BigInteger)}, for targets that fit in a long.
+	 * Each step grows the larger pile by at least one, so the step count always fits as well.
+	 * @return The number of steps, or -1 if the target can't be reached.
+	 */
+	static long traverse(long mach, long fac) {
+		if (mach <= 0 || fac <= 0) return -1;
+		long steps = 0;
+		while (mach != 0 && fac != 0) {
+			if (mach >= fac) {
+				steps += mach / fac;
+				mach %= fac;
 			} else {
-				root = new BombNode(root.steps.add(f.divide(m)), m, f.mod(m));
-			}
-			if (root.mach.equals(BigInteger.ZERO) && root.fac.equals(BigInteger.ONE)) {
-				root.mach = BigInteger.ONE;
-				root.steps = root.steps.subtract(BigInteger.ONE);
-			} else if (root.fac.equals(BigInteger.ZERO) && root.mach.equals(BigInteger.ONE)) {
-				root.fac = BigInteger.ONE;
-				root.steps = root.steps.subtract(BigInteger.ONE);
+				steps += fac / mach;
+				fac %= mach;
 			}
-			if (isInvalid(root)) break;
 		}
-		return N_ONE;
+		return mach + fac == 1 ? steps - 1 : -1;
+	}
+
+	/**
+	 * Solves many targets in parallel on the common fork-join pool, passing each result to the sink as soon as it is done.
+	 * Results arrive in completion order, so the sink must be thread-safe, and can match them up by {@link BombResult#index}.
+	 * @param targets The (M, F) pairs, as decimal strings.
+	 */
+	public static void solveAll(List<String[]> targets, Consumer<BombResult> sink) {
+		IntStream.range(0, targets.size()).parallel().forEach(i -> {
+			String[] target = targets.get(i);
+			sink.accept(tracePath(i, new BigInteger(target[0]), new BigInteger(target[1])));
+		});
+	}
+
+	/**
+	 * Solves many targets in parallel.
+	 * @return The results, in the same order as the targets.
+	 */
+	public static List<BombResult> solveAll(List<String[]> targets) {
+		BombResult[] results = new BombResult[targets.size()];
+		solveAll(targets, r -> results[r.index] = r);
+		return Arrays.asList(results);
 	}
 
-	static class BombNode {
+	/**
+	 * The same walk as {@link #traverse(BigInteger, BigInteger)}, but keeping the quotients,
+	 * as each one is a run of the same operation on the way from (1, 1) to the target.
+	 * A quotient taken while M is larger is a run of adding F to M, and the reverse for F.
+	 * The runs are found last to first, and the first run is one shorter as the walk goes one step past (1, 1).
+	 */
+	static BombResult tracePath(int index, BigInteger mach, BigInteger fac) {
+		if (mach.signum() <= 0 || fac.signum() <= 0) return new BombResult(index, N_ONE, null);
+		List<BigInteger> runs = new ArrayList<>();
+		List<Character> ops = new ArrayList<>();
+		BigInteger steps = BigInteger.ZERO;
+		while (mach.signum() != 0 && fac.signum() != 0) {
+			boolean machLarger = mach.compareTo(fac) >= 0;
+			BigInteger[] qr = machLarger ? mach.divideAndRemainder(fac) : fac.divideAndRemainder(mach);
+			steps = steps.add(qr[0]);
+			runs.add(qr[0]);
+			ops.add(machLarger ? 'M' : 'F');
+			if (machLarger) mach = qr[1];
+			else fac = qr[1];
+		}
+		if (!mach.add(fac).equals(BigInteger.ONE)) return new BombResult(index, N_ONE, null);
+
+		StringBuilder path = new StringBuilder();
+		for (int i = runs.size() - 1; i >= 0; i--) {
+			BigInteger run = i == runs.size() - 1 ? runs.get(i).subtract(BigInteger.ONE) : runs.get(i);
+			if (run.signum() != 0) path.append(ops.get(i)).append(run);
+		}
+		return new BombResult(index, steps.subtract(BigInteger.ONE), path.toString());
+	}
 
-		BigInteger mach, fac;
-		BigInteger steps;
+	public static class BombResult {
+		public final int index;
+		public final BigInteger steps; //N_ONE if the target is impossible.
+		public final String path; //Run-length encoded operations from (1, 1), such as "M2F1", or null if impossible.
 
-		public BombNode(BigInteger steps, BigInteger mach, BigInteger fac) {
-			this.mach = mach;
-			this.fac = fac;
+		public BombResult(int index, BigInteger steps, String path) {
+			this.index = index;
 			this.steps = steps;
+			this.path = path;
 		}
-
 	}
 
 }
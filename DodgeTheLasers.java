@@ -1,5 +1,9 @@
-import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 /**
  * @author Brennan Ward
@@ -13,27 +17,325 @@ import java.math.BigInteger;
  * n' = (a-1)n
  * S(a,n) = (n + n')(n + n' + 1)/2 - S(b, n')
  * if a = sqrt(2), b = 2 + sqrt(2)
+ * 
+ * Everything is done in exact integer arithmetic, as floor(n * sqrt(2)) is the integer square root of 2n^2,
+ * so there is no precision limit on n.
  */
 public class DodgeTheLasers {
 
-	static final BigDecimal SQRT_DIG = new BigDecimal(150);
-	static final BigDecimal SQRT_PRE = new BigDecimal(10).pow(150);
-	static final BigDecimal SQRT_2 = new BigDecimal("1.4142135623730950488016887242096980785696718753769480731766797379907324784621070388503875343276415727350138462309122970249248360558507372126441214971");
-	static final BigDecimal PRIME_FACTOR = SQRT_2.subtract(BigDecimal.ONE);
 	static final BigInteger TWO = BigInteger.valueOf(2);
 
+	/**
+	 * floor(sqrt(2) * 2^bits), grown whenever a larger n needs more precision.
+	 */
+	static volatile FixedSqrt2 SQRT_2 = new FixedSqrt2(512);
+	static final int GUARD_BITS = 32;
+
 	public static String solution(String input) {
 		BigInteger n = new BigInteger(input);
 		return beattyA001951(n).toString();
 	}
 
+	/**
+	 * Computes S(n) = sum from i = 1..n of floor(i * sqrt(2)).
+	 * Expanding the recursion S(n) = T(n) - S(n') gives an alternating sum of T over the chain n, n', n'', ...
+	 * which is walked iteratively until it reaches zero.
+	 */
 	public static BigInteger beattyA001951(BigInteger n) {
-		if (n.equals(BigInteger.ZERO)) return BigInteger.ZERO;
-		BigInteger nPrime = PRIME_FACTOR.multiply(new BigDecimal(n)).toBigInteger();
+		BigInteger sum = BigInteger.ZERO;
+		boolean negate = false;
+		while (n.signum() != 0) {
+			BigInteger nPrime = nPrime(n);
+			BigInteger term = term(n, nPrime);
+			sum = negate ? sum.subtract(term) : sum.add(term);
+			negate = !negate;
+			n = nPrime;
+		}
+		return sum;
+	}
+
+	/**
+	 * n' = floor(n * (sqrt(2) - 1)) = floor(sqrt(2n^2)) - n, which is exact since sqrt(2) is irrational.
+	 */
+	public static BigInteger nPrime(BigInteger n) {
+		return floorSqrt2(n).subtract(n);
+	}
+
+	/**
+	 * Computes floor(n * sqrt(2)), the integer square root of 2n^2.
+	 * Running a full BigInteger.sqrt per step is slow, so n is multiplied by a fixed point sqrt(2) instead.
+	 * The fixed point value is truncated to GUARD_BITS more bits than n, which keeps the product within 2^-GUARD_BITS below n * sqrt(2).
+	 * The floor can then only be wrong when the fraction is that close to 1, which is checked exactly against 2n^2.
+	 */
+	static BigInteger floorSqrt2(BigInteger n) {
+		int bits = n.bitLength() + GUARD_BITS;
+		FixedSqrt2 c = SQRT_2;
+		if (c.bits < bits) SQRT_2 = c = new FixedSqrt2(2 * bits);
+		BigInteger product = n.multiply(c.value.shiftRight(c.bits - bits));
+		BigInteger root = product.shiftRight(bits);
+		if (product.add(BigInteger.ONE.shiftLeft(n.bitLength())).shiftRight(bits).equals(root)) return root;
+		BigInteger next = root.add(BigInteger.ONE);
+		return next.multiply(next).compareTo(n.multiply(n).shiftLeft(1)) <= 0 ? next : root;
+	}
+
+	/**
+	 * T(n) = n * n' + n(n + 1)/2 - n'(n' + 1)/2, the part of S(n) that does not recurse.
+	 */
+	static BigInteger term(BigInteger n, BigInteger nPrime) {
 		BigInteger term1 = n.multiply(nPrime);
-		BigInteger term2 = n.multiply(n.add(BigInteger.ONE)).divide(TWO);
-		BigInteger term3 = nPrime.multiply(nPrime.add(BigInteger.ONE)).divide(TWO);
-		return term1.add(term2).subtract(term3).subtract(beattyA001951(nPrime));
+		BigInteger term2 = n.multiply(n.add(BigInteger.ONE)).shiftRight(1);
+		BigInteger term3 = nPrime.multiply(nPrime.add(BigInteger.ONE)).shiftRight(1);
+		return term1.add(term2).subtract(term3);
+	}
+
+	/**
+	 * Answers range sums of floor(i * sqrt(2)) from a bounded LRU cache of S(n), keyed on every n along the chains it walks.
+	 * The chains of nearby n meet after a few steps, so a new query usually only computes its first few levels.
+	 */
+	public static class RangeQueries {
+		final LinkedHashMap<BigInteger, BigInteger> cache;
+		long hits, misses;
+
+		public RangeQueries(int capacity) {
+			this.cache = new LinkedHashMap<BigInteger, BigInteger>(16, 0.75F, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<BigInteger, BigInteger> eldest) {
+					return this.size() > capacity;
+				}
+			};
+		}
+
+		/**
+		 * Computes S(n), walking down the chain n, n', n'', ... until a cached value (or zero) is found,
+		 * then filling the cache back up with S(n_i) = T(n_i) - S(n_{i+1}).
+		 */
+		public synchronized BigInteger prefix(BigInteger n) {
+			List<BigInteger> chain = new ArrayList<>();
+			BigInteger sum = BigInteger.ZERO;
+			while (n.signum() != 0) {
+				BigInteger cached = this.cache.get(n);
+				if (cached != null) {
+					this.hits++;
+					sum = cached;
+					break;
+				}
+				this.misses++;
+				chain.add(n);
+				n = nPrime(n);
+			}
+			for (int i = chain.size() - 1; i >= 0; i--) {
+				BigInteger cur = chain.get(i);
+				BigInteger next = i == chain.size() - 1 ? n : chain.get(i + 1);
+				sum = term(cur, next).subtract(sum);
+				this.cache.put(cur, sum);
+			}
+			return sum;
+		}
+
+		/**
+		 * Computes sum from i = a..b of floor(i * sqrt(2)).
+		 */
+		public BigInteger rangeSum(BigInteger a, BigInteger b) {
+			if (a.compareTo(b) > 0) return BigInteger.ZERO;
+			return this.prefix(b).subtract(this.prefix(a.subtract(BigInteger.ONE).max(BigInteger.ZERO)));
+		}
+
+		/**
+		 * Answers many [a, b] range sums at once.  Every distinct endpoint is computed once, smallest first,
+		 * so the deeper levels shared between chains are already cached when the larger endpoints reach them.
+		 * @return The sums, in the same order as the ranges.
+		 */
+		public List<BigInteger> rangeSums(List<BigInteger[]> ranges) {
+			TreeSet<BigInteger> endpoints = new TreeSet<>();
+			for (BigInteger[] range : ranges) {
+				if (range[0].compareTo(range[1]) > 0) continue;
+				endpoints.add(range[1]);
+				endpoints.add(range[0].subtract(BigInteger.ONE).max(BigInteger.ZERO));
+			}
+			Map<BigInteger, BigInteger> prefixes = new LinkedHashMap<>();
+			for (BigInteger n : endpoints)
+				prefixes.put(n, this.prefix(n));
+
+			List<BigInteger> sums = new ArrayList<>(ranges.size());
+			for (BigInteger[] range : ranges) {
+				if (range[0].compareTo(range[1]) > 0) sums.add(BigInteger.ZERO);
+				else sums.add(prefixes.get(range[1]).subtract(prefixes.get(range[0].subtract(BigInteger.ONE).max(BigInteger.ZERO))));
+			}
+			return sums;
+		}
+
+		public synchronized long hits() {
+			return this.hits;
+		}
+
+		public synchronized long misses() {
+			return this.misses;
+		}
+	}
+
+	/**
+	 * A slope alpha, for which sum from i = 1..n of floor(i * alpha) can be found in O(log n) steps of exact integer arithmetic.
+	 */
+	public interface Slope {
+		BigInteger floorSum(BigInteger n);
+	}
+
+	/**
+	 * Creates the slope (a + sqrt(b))/c.  If b is a perfect square this is just a rational.
+	 */
+	public static Slope slope(long a, long b, long c) {
+		if (b < 0 || c == 0) throw new IllegalArgumentException("Not a real number: (" + a + " + sqrt(" + b + "))/" + c);
+		BigInteger root = BigInteger.valueOf(b).sqrt();
+		if (root.multiply(root).equals(BigInteger.valueOf(b))) return new RationalSlope(BigInteger.valueOf(a).add(root), BigInteger.valueOf(c));
+		return new QuadraticSlope(BigInteger.valueOf(a), BigInteger.valueOf(b), BigInteger.valueOf(c));
+	}
+
+	/**
+	 * Creates the slope sqrt(k).
+	 */
+	public static Slope sqrt(long k) {
+		return slope(0, k, 1);
+	}
+
+	/**
+	 * Creates the slope p/q.
+	 */
+	public static Slope rational(long p, long q) {
+		if (q == 0) throw new IllegalArgumentException("Division by zero: " + p + "/" + q);
+		return new RationalSlope(BigInteger.valueOf(p), BigInteger.valueOf(q));
+	}
+
+	/**
+	 * The slope p/q, summed with the classic floor_sum algorithm.
+	 */
+	public static class RationalSlope implements Slope {
+		final BigInteger p, q;
+
+		public RationalSlope(BigInteger p, BigInteger q) {
+			this.p = q.signum() < 0 ? p.negate() : p;
+			this.q = q.abs();
+		}
+
+		@Override
+		public BigInteger floorSum(BigInteger n) {
+			return DodgeTheLasers.floorSum(n.add(BigInteger.ONE), this.q, this.p, BigInteger.ZERO);
+		}
+	}
+
+	/**
+	 * Computes sum from i = 0..n-1 of floor((a * i + b) / m), for m > 0.
+	 * Each step swaps the roles of the two axes, like Euclid's algorithm on (a, m), so it takes O(log m) steps.
+	 */
+	public static BigInteger floorSum(BigInteger n, BigInteger m, BigInteger a, BigInteger b) {
+		BigInteger sum = BigInteger.ZERO;
+		BigInteger pairs = n.multiply(n.subtract(BigInteger.ONE)).shiftRight(1);
+		//Move a and b into [0, m), so everything after is non-negative.
+		BigInteger[] qr = a.divideAndRemainder(m);
+		if (qr[1].signum() < 0) qr = new BigInteger[] { qr[0].subtract(BigInteger.ONE), qr[1].add(m) };
+		sum = sum.add(pairs.multiply(qr[0]));
+		a = qr[1];
+		qr = b.divideAndRemainder(m);
+		if (qr[1].signum() < 0) qr = new BigInteger[] { qr[0].subtract(BigInteger.ONE), qr[1].add(m) };
+		sum = sum.add(n.multiply(qr[0]));
+		b = qr[1];
+
+		while (true) {
+			if (a.compareTo(m) >= 0) {
+				qr = a.divideAndRemainder(m);
+				sum = sum.add(n.multiply(n.subtract(BigInteger.ONE)).shiftRight(1).multiply(qr[0]));
+				a = qr[1];
+			}
+			if (b.compareTo(m) >= 0) {
+				qr = b.divideAndRemainder(m);
+				sum = sum.add(n.multiply(qr[0]));
+				b = qr[1];
+			}
+			BigInteger yMax = a.multiply(n).add(b);
+			if (yMax.compareTo(m) < 0) return sum;
+			qr = yMax.divideAndRemainder(m);
+			n = qr[0];
+			b = qr[1];
+			BigInteger t = m;
+			m = a;
+			a = t;
+		}
+	}
+
+	/**
+	 * The irrational slope (p + sqrt(d))/q, where d is not a perfect square.
+	 * It is kept in the form where q divides d - p^2, so that subtracting an integer or taking the reciprocal stays in this form:
+	 * (p + sqrt(d))/q - k = (p - kq + sqrt(d))/q, and q/(p + sqrt(d)) = (-p + sqrt(d))/((d - p^2)/q).
+	 */
+	public static class QuadraticSlope implements Slope {
+		final BigInteger p, d, q;
+
+		public QuadraticSlope(BigInteger a, BigInteger b, BigInteger c) {
+			if (b.subtract(a.multiply(a)).mod(c.abs()).signum() == 0) {
+				this.p = a;
+				this.d = b;
+				this.q = c;
+			} else {
+				//Scaling through by |c| gives (a|c| + sqrt(b c^2))/(c|c|), where the divisibility always holds.
+				this.p = a.multiply(c.abs());
+				this.d = b.multiply(c).multiply(c);
+				this.q = c.multiply(c.abs());
+			}
+		}
+
+		/**
+		 * For irrational alpha, S(alpha, n) = k * n(n + 1)/2 + S(alpha - k, n) where k = floor(alpha),
+		 * and for 0 < alpha < 1, counting lattice points under the line both ways gives S(alpha, n) = n * m - S(1/alpha, m), where m = floor(n * alpha).
+		 * A negative alpha is first flipped with floor(-x) = -floor(x) - 1.
+		 */
+		@Override
+		public BigInteger floorSum(BigInteger n) {
+			BigInteger p = this.p, q = this.q, d = this.d;
+			BigInteger sum = BigInteger.ZERO;
+			boolean negate = false;
+			if (floor(p, d, q).signum() < 0) {
+				q = q.negate();
+				sum = n.negate();
+				negate = true;
+			}
+			while (n.signum() != 0) {
+				BigInteger k = floor(p, d, q);
+				p = p.subtract(k.multiply(q));
+				BigInteger m = floor(n.multiply(p), n.multiply(n).multiply(d), q);
+				BigInteger term = k.multiply(n).multiply(n.add(BigInteger.ONE)).shiftRight(1).add(n.multiply(m));
+				sum = negate ? sum.subtract(term) : sum.add(term);
+				negate = !negate;
+				p = p.negate();
+				q = d.subtract(p.multiply(p)).divide(q);
+				n = m;
+			}
+			return sum;
+		}
+
+		/**
+		 * floor((p + sqrt(d))/q), using that sqrt(d) lies strictly between floor(sqrt(d)) and the next integer.
+		 */
+		static BigInteger floor(BigInteger p, BigInteger d, BigInteger q) {
+			BigInteger top = p.add(d.sqrt());
+			if (q.signum() > 0) return floorDiv(top, q);
+			return floorDiv(top, q.negate()).negate().subtract(BigInteger.ONE);
+		}
+	}
+
+	static BigInteger floorDiv(BigInteger a, BigInteger b) {
+		BigInteger[] qr = a.divideAndRemainder(b);
+		return qr[1].signum() < 0 ? qr[0].subtract(BigInteger.ONE) : qr[0];
+	}
+
+	static class FixedSqrt2 {
+		final int bits;
+		final BigInteger value;
+
+		FixedSqrt2(int bits) {
+			this.bits = bits;
+			this.value = BigInteger.ONE.shiftLeft(2 * bits + 1).sqrt();
+		}
 	}
 
 }
@@ -1,5 +1,13 @@
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * @author Brennan Ward
@@ -22,6 +30,14 @@ import java.util.List;
 public class DoomsdayFuel {
 
 	public static int[] solution(int[][] m) {
+		return solutionSparse(m);
+	}
+
+	/**
+	 * Solves the chain using the dense (I - Q) matrix, with the terminal states swapped to the front.
+	 */
+	public static int[] solutionDense(int[][] m) {
+		if (getSum(m[0]) == 0) return terminalStart(m);
 		List<Integer> terminals = new ArrayList<>();
 		Rational[][] matrix = toRational(m, terminals);
 		int k = 0;
@@ -35,11 +51,258 @@ public class DoomsdayFuel {
 		Rational[][] q = submatrix2(matrix, terminals.size(), terminals.size());
 		Rational[][] identity = identity(q.length);
 		Rational[][] iMinusQ = matrixSub(identity, q);
-		Rational[][] f = inverse(iMinusQ);
 		Rational[][] r = submatrix3(matrix, terminals.size(), terminals.size());
-		Rational[][] fr = matrixMul(f, r);
-		Foobar.printMatrix(fr);
-		return fr.length == 0 ? new int[] { 1, 1 } : formatToOutputSpec(fr[0]);
+		return r.length == 0 ? new int[] { 1, 1 } : formatToOutputSpec(solveRow(iMinusQ, r, 0));
+	}
+
+	/**
+	 * The answer when state 0 is itself terminal: it is absorbed immediately, so it is the first terminal with probability 1.
+	 * solveRow only ever solves for transient states, so the dense and modular backends must check for this first.
+	 */
+	static int[] terminalStart(int[][] m) {
+		int terminals = 0;
+		for (int[] row : m) {
+			if (getSum(row) == 0) terminals++;
+		}
+		int[] out = new int[terminals + 1];
+		out[0] = 1;
+		out[terminals] = 1;
+		return out;
+	}
+
+	/**
+	 * Solves the chain using a {@link SparseChain}, so memory scales with the nonzero weights
+	 * rather than n^2, and states unreachable from state 0 are never considered.
+	 */
+	public static int[] solutionSparse(int[][] m) {
+		return formatToOutputSpec(new SparseChain(m).absorption(0));
+	}
+
+	/**
+	 * Solves the chain once for each of the given start states, sharing a single {@link FactorizedChain}.
+	 */
+	public static int[][] solutions(int[][] m, int[] starts) {
+		FactorizedChain chain = new FactorizedChain(m);
+		int[][] out = new int[starts.length][];
+		for (int i = 0; i < starts.length; i++) {
+			out[i] = formatToOutputSpec(chain.absorption(starts[i]));
+		}
+		return out;
+	}
+
+	/**
+	 * Solves the chain with exact modular arithmetic, rather than over {@link Rational}s, to avoid coefficient growth.
+	 * Each transient row is scaled by its row sum, giving the integer system A * Y = B, where A = diag(sums) * (I - Q).
+	 * Row 0 of Y is then solved modulo enough 63-bit primes to cover the Hadamard bound of A, with each prime solved in parallel.
+	 * Finally, the residues are combined via the Chinese Remainder Theorem, and the fractions are recovered via rational reconstruction.
+	 */
+	public static int[] solutionModular(int[][] m) {
+		List<Integer> terminals = new ArrayList<>(), transients = new ArrayList<>();
+		for (int i = 0; i < m.length; i++) {
+			(getSum(m[i]) == 0 ? terminals : transients).add(i);
+		}
+		if (getSum(m[0]) == 0) return terminalStart(m);
+
+		int n = transients.size();
+		long[][] a = new long[n][n];
+		long[][] b = new long[n][terminals.size()];
+		double hadamardBits = 0;
+		for (int i = 0; i < n; i++) {
+			int[] row = m[transients.get(i)];
+			long sum = getSum(row);
+			double normSq = 0;
+			for (int j = 0; j < n; j++) {
+				a[i][j] = (i == j ? sum : 0) - row[transients.get(j)];
+				normSq += (double) a[i][j] * a[i][j];
+			}
+			for (int j = 0; j < b[i].length; j++) {
+				b[i][j] = row[terminals.get(j)];
+			}
+			hadamardBits += Math.log(normSq) / Math.log(2) / 2;
+		}
+
+		//Every answer is num/denom with 0 <= num <= denom <= |det(A)|, so the moduli must exceed 2 * det(A)^2 to reconstruct it.
+		int needed = (int) Math.ceil((2 * hadamardBits + 2) / 62) + 1;
+		List<long[]> residues = new ArrayList<>();
+		List<Long> moduli = new ArrayList<>();
+		int next = 0;
+		while (residues.size() < needed) {
+			int from = next, to = next + needed - residues.size();
+			next = to;
+			modPrime(to - 1); //Generate the primes up front, so the workers only read them.
+			List<long[]> batch = IntStream.range(from, to).parallel().mapToObj(i -> solveModPrime(a, b, 0, modPrime(i))).collect(Collectors.toList());
+			for (int i = 0; i < batch.size(); i++) {
+				if (batch.get(i) == null) continue; //A is singular modulo this prime, so it is skipped.
+				residues.add(batch.get(i));
+				moduli.add(modPrime(from + i));
+			}
+		}
+
+		Rational[] out = new Rational[terminals.size()];
+		for (int t = 0; t < out.length; t++) {
+			BigInteger value = BigInteger.ZERO, modulus = BigInteger.ONE;
+			for (int i = 0; i < residues.size(); i++) {
+				BigInteger p = BigInteger.valueOf(moduli.get(i));
+				BigInteger delta = BigInteger.valueOf(residues.get(i)[t]).subtract(value).multiply(modulus.modInverse(p)).mod(p);
+				value = value.add(modulus.multiply(delta));
+				modulus = modulus.multiply(p);
+			}
+			out[t] = reconstruct(value, modulus);
+		}
+		return formatToOutputSpec(out);
+	}
+
+	/**
+	 * Solves for the start-th row of A^-1 * B modulo p, using the same transpose trick as {@link #solveRow}.
+	 * @return The row, or null if A is singular modulo p.
+	 */
+	static long[] solveModPrime(long[][] a, long[][] b, int start, long p) {
+		Montgomery mont = new Montgomery(p);
+		int n = a.length;
+		long[][] aug = new long[n][n + 1];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				aug[i][j] = mont.toMont(Math.floorMod(a[j][i], p));
+			}
+			aug[i][n] = i == start ? mont.toMont(1) : 0;
+		}
+
+		for (int col = 0; col < n; col++) {
+			int pivot = col;
+			while (pivot < n && aug[pivot][col] == 0)
+				pivot++;
+			if (pivot == n) return null;
+			long[] tmp = aug[col];
+			aug[col] = aug[pivot];
+			aug[pivot] = tmp;
+			long pivInv = mont.inverse(aug[col][col]);
+			for (int j = col; j <= n; j++) {
+				aug[col][j] = mont.mul(aug[col][j], pivInv);
+			}
+			for (int i = 0; i < n; i++) {
+				long factor = aug[i][col];
+				if (i == col || factor == 0) continue;
+				for (int j = col; j <= n; j++) {
+					aug[i][j] = mont.sub(aug[i][j], mont.mul(factor, aug[col][j]));
+				}
+			}
+		}
+
+		long[] out = new long[b.length == 0 ? 0 : b[0].length];
+		for (int j = 0; j < out.length; j++) {
+			long dot = 0;
+			for (int k = 0; k < n; k++) {
+				dot = mont.add(dot, mont.mul(aug[k][n], mont.toMont(b[k][j] % p)));
+			}
+			out[j] = mont.fromMont(dot);
+		}
+		return out;
+	}
+
+	/**
+	 * Rational reconstruction: finds the fraction num/denom congruent to value modulo modulus,
+	 * where |num| and denom are both at most sqrt(modulus / 2), via the extended Euclidean algorithm.
+	 */
+	static Rational reconstruct(BigInteger value, BigInteger modulus) {
+		BigInteger bound = modulus.shiftRight(1).sqrt();
+		BigInteger r0 = modulus, r1 = value, t0 = BigInteger.ZERO, t1 = BigInteger.ONE;
+		while (r1.compareTo(bound) > 0) {
+			BigInteger q = r0.divide(r1);
+			BigInteger r = r0.subtract(q.multiply(r1));
+			r0 = r1;
+			r1 = r;
+			BigInteger t = t0.subtract(q.multiply(t1));
+			t0 = t1;
+			t1 = t;
+		}
+		if (t1.abs().compareTo(bound) > 0) throw new ArithmeticException("Not enough moduli to reconstruct " + value);
+		return new Rational(0, 1).set(r1, t1);
+	}
+
+	static final List<Long> MOD_PRIMES = new ArrayList<>();
+
+	/**
+	 * Returns the i-th largest prime below 2^63, generating them as needed.
+	 */
+	static synchronized long modPrime(int i) {
+		long candidate = MOD_PRIMES.isEmpty() ? Long.MAX_VALUE : MOD_PRIMES.get(MOD_PRIMES.size() - 1) - 2;
+		while (MOD_PRIMES.size() <= i) {
+			if (BigInteger.valueOf(candidate).isProbablePrime(64)) MOD_PRIMES.add(candidate);
+			candidate -= 2;
+		}
+		return MOD_PRIMES.get(i);
+	}
+
+	/**
+	 * Montgomery arithmetic modulo an odd prime below 2^63, with R = 2^64.
+	 * Values are held in Montgomery form (a * R mod p), so a modular multiply needs no division, only two 64x64 bit multiplies.
+	 * Sums may exceed 2^63, so they are compared unsigned.
+	 */
+	static class Montgomery {
+		final long p, negInv, r2;
+
+		Montgomery(long p) {
+			this.p = p;
+			long inv = p; //Correct to 3 bits, and each Newton step doubles that.
+			for (int i = 0; i < 5; i++) {
+				inv *= 2 - p * inv;
+			}
+			this.negInv = -inv;
+			long r = Long.remainderUnsigned(-p, p); //R mod p
+			for (int i = 0; i < 64; i++) {
+				r = add(r, r);
+			}
+			this.r2 = r;
+		}
+
+		long add(long a, long b) {
+			long s = a + b;
+			return Long.compareUnsigned(s, this.p) >= 0 ? s - this.p : s;
+		}
+
+		long sub(long a, long b) {
+			long d = a - b;
+			return d < 0 ? d + this.p : d;
+		}
+
+		long mul(long a, long b) {
+			return redc(Math.multiplyHigh(a, b), a * b);
+		}
+
+		/**
+		 * Computes (hi:lo) / R mod p, for a 128-bit value below p * R.
+		 */
+		long redc(long hi, long lo) {
+			long m = lo * this.negInv;
+			long mpHi = Math.multiplyHigh(m, this.p) + (m < 0 ? this.p : 0); //Unsigned high word of m * p.
+			long t = hi + mpHi + (lo != 0 ? 1 : 0); //lo + m * p is 0 mod R, so the low words only carry.
+			return Long.compareUnsigned(t, this.p) >= 0 ? t - this.p : t;
+		}
+
+		long toMont(long a) {
+			return mul(a, this.r2);
+		}
+
+		long fromMont(long a) {
+			return redc(0, a);
+		}
+
+		/**
+		 * Inverts a value in Montgomery form, via the extended Euclidean algorithm.
+		 */
+		long inverse(long a) {
+			long t = 0, newT = 1, r = this.p, newR = fromMont(a);
+			while (newR != 0) {
+				long q = r / newR;
+				long tmp = t - q * newT;
+				t = newT;
+				newT = tmp;
+				tmp = r - q * newR;
+				r = newR;
+				newR = tmp;
+			}
+			return toMont(t < 0 ? t + this.p : t);
+		}
 	}
 
 	public static Rational[][] toRational(int[][] m, List<Integer> terminalHolder) {
@@ -58,29 +321,23 @@ public class DoomsdayFuel {
 		return matrix;
 	}
 
+	/**
+	 * Puts the row over a common denominator, the lcm of the row's denominators.
+	 * Each fraction is already in lowest terms, so the lcm is the least common denominator
+	 * and the resulting numerators never need reducing.
+	 */
 	public static int[] formatToOutputSpec(Rational[] arr) {
-		long[] out = new long[arr.length + 1];
-		long denom = 0;
-		for (int i = 0; i < arr.length; i++) {
-			Rational r = arr[i];
-			int factor = 1;
-			for (int j = 0; j < arr.length; j++) {
-				if (j != i) factor *= arr[j].denom;
-			}
-			r = r.rebase(factor);
-			out[i] = r.num;
-			denom = r.denom;
+		long lcm = 1;
+		for (Rational r : arr) {
+			if (r.isBig()) throw new ArithmeticException("Fraction exceeds the output spec: " + r);
+			lcm = lcm(lcm, r.denom);
 		}
-		long gcd = gcd(out, arr.length);
-		out[arr.length] = (int) (denom / gcd);
+		int[] out = new int[arr.length + 1];
 		for (int i = 0; i < arr.length; i++) {
-			out[i] = out[i] / gcd;
+			out[i] = Math.toIntExact(Math.multiplyExact(arr[i].num, lcm / arr[i].denom)); //The output spec is int[], so fail loudly rather than truncate.
 		}
-		int[] rOut = new int[arr.length + 1];
-		for (int i = 0; i < out.length; i++) {
-			rOut[i] = (int) out[i];
-		}
-		return rOut;
+		out[arr.length] = Math.toIntExact(lcm);
+		return out;
 	}
 
 	public static Rational[][] matrixSub(Rational[][] m1, Rational[][] m2) {
@@ -105,7 +362,7 @@ public class DoomsdayFuel {
 				Rational[] row = m1[i];
 				Rational dot = new Rational(0, 1);
 				for (int k = 0; k < row.length; k++) {
-					dot = dot.add(row[k].mul(m2[k][j]));
+					dot.addMul(row[k], m2[k][j]);
 				}
 				out[i][j] = dot;
 			}
@@ -113,47 +370,562 @@ public class DoomsdayFuel {
 		return out;
 	}
 
+	/**
+	 * Computes a single row of F * R, where F = (I - Q)^-1, without forming the inverse.
+	 * The row-th row of F is the vector x satisfying x * (I - Q) = e_row, so we run
+	 * Gauss-Jordan elimination on the transpose of I - Q with e_row as the right-hand side,
+	 * and then multiply the resulting row through R.  This is O(n^3), rather than the O(n!)
+	 * of computing the adjugate via cofactor expansion.
+	 */
+	public static Rational[] solveRow(Rational[][] iMinusQ, Rational[][] r, int row) {
+		int n = iMinusQ.length;
+		Rational[][] aug = new Rational[n][n + 1];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				aug[i][j] = iMinusQ[j][i].copy(); //Copied, as elimination works in place.
+			}
+			aug[i][n] = new Rational(i == row ? 1 : 0, 1);
+		}
+
+		for (int col = 0; col < n; col++) {
+			int pivot = col;
+			while (aug[pivot][col].signum() == 0) //I - Q is always invertible for an absorbing chain, so a pivot exists.
+				pivot++;
+			swapRow(aug, col, pivot);
+			Rational pivInv = aug[col][col].reciprocol();
+			for (int j = col; j <= n; j++) {
+				aug[col][j].mulInPlace(pivInv);
+			}
+			for (int i = 0; i < n; i++) {
+				Rational factor = aug[i][col];
+				if (i == col || factor.signum() == 0) continue;
+				for (int j = col + 1; j <= n; j++) {
+					aug[i][j].subMul(factor, aug[col][j]);
+				}
+				factor.set(0, 1); //Cleared last, as it is read by every step above.
+			}
+		}
+
+		Rational[] out = new Rational[r[0].length];
+		for (int j = 0; j < out.length; j++) {
+			Rational dot = new Rational(0, 1);
+			for (int k = 0; k < n; k++) {
+				dot.addMul(aug[k][n], r[k][j]);
+			}
+			out[j] = dot;
+		}
+		return out;
+	}
+
+	/**
+	 * A sparse view of the state matrix, for chains that are large and mostly zeros.
+	 * The weights are stored row-compressed (CSR), and only the states reachable from the
+	 * start state ever take part in the algebra.  Absorption probabilities are found via state elimination:
+	 * each transient state other than the start is removed by rerouting its in-edges across its out-edges,
+	 * which is Gaussian elimination on I - Q, but only ever touching nonzero entries.
+	 */
+	public static class SparseChain {
+		final int n;
+		final int[] rowStart, cols, weights;
+		final long[] rowSums;
+		final int[] terminals; //Original indices of the terminal states, in order.
+		final int[] terminalIndex; //Maps a state to its index in terminals, or -1 if it is transient.
+
+		public SparseChain(int[][] m) {
+			this.n = m.length;
+			this.rowStart = new int[n + 1];
+			this.rowSums = new long[n];
+			int edges = 0, terms = 0;
+			for (int i = 0; i < n; i++) {
+				for (int w : m[i]) {
+					if (w != 0) edges++;
+					this.rowSums[i] += w;
+				}
+				if (this.rowSums[i] == 0) terms++;
+			}
+			this.cols = new int[edges];
+			this.weights = new int[edges];
+			this.terminals = new int[terms];
+			this.terminalIndex = new int[n];
+			int e = 0, t = 0;
+			for (int i = 0; i < n; i++) {
+				this.rowStart[i] = e;
+				for (int j = 0; j < n; j++) {
+					if (m[i][j] == 0) continue;
+					this.cols[e] = j;
+					this.weights[e++] = m[i][j];
+				}
+				if (this.rowSums[i] == 0) this.terminals[t] = i;
+				this.terminalIndex[i] = this.rowSums[i] == 0 ? t++ : -1;
+			}
+			this.rowStart[n] = e;
+		}
+
+		boolean isTerminal(int state) {
+			return this.terminalIndex[state] >= 0;
+		}
+
+		/**
+		 * BFS over the nonzero weights, marking every state that can be reached from start.
+		 */
+		boolean[] reachableFrom(int start) {
+			boolean[] seen = new boolean[n];
+			int[] queue = new int[n];
+			int head = 0, tail = 0;
+			seen[start] = true;
+			queue[tail++] = start;
+			while (head < tail) {
+				int state = queue[head++];
+				for (int e = this.rowStart[state]; e < this.rowStart[state + 1]; e++) {
+					int dest = this.cols[e];
+					if (!seen[dest]) {
+						seen[dest] = true;
+						queue[tail++] = dest;
+					}
+				}
+			}
+			return seen;
+		}
+
+		/**
+		 * Calculates the chance to be absorbed into each terminal state, when starting in start.
+		 * @return The absorption probabilities, in the same order as the terminals.
+		 */
+		public Rational[] absorption(int start) {
+			Rational[] out = new Rational[this.terminals.length];
+			for (int t = 0; t < out.length; t++) {
+				out[t] = new Rational(0, 1);
+			}
+			if (isTerminal(start)) {
+				out[this.terminalIndex[start]].set(1, 1);
+				return out;
+			}
+
+			boolean[] reachable = reachableFrom(start);
+			List<Map<Integer, Rational>> outs = new ArrayList<>(n); //Outgoing transition chances of each live transient state.
+			List<Set<Integer>> preds = new ArrayList<>(n); //The live transient states that transition into each transient state.
+			List<Integer> order = new ArrayList<>();
+			for (int i = 0; i < n; i++) {
+				boolean live = reachable[i] && !isTerminal(i);
+				outs.add(live ? new HashMap<>() : null);
+				preds.add(live ? new HashSet<>() : null);
+				if (live && i != start) order.add(i);
+			}
+			for (int i = 0; i < n; i++) {
+				if (outs.get(i) == null) continue;
+				for (int e = this.rowStart[i]; e < this.rowStart[i + 1]; e++) {
+					int dest = this.cols[e];
+					outs.get(i).put(dest, new Rational(this.weights[e], this.rowSums[i]));
+					if (!isTerminal(dest)) preds.get(dest).add(i);
+				}
+			}
+
+			//Eliminating the sparsest states first keeps the fill-in down.
+			order.sort(Comparator.comparingLong(i -> (long) preds.get(i).size() * outs.get(i).size()));
+			for (int k : order) {
+				Map<Integer, Rational> kOut = outs.get(k);
+				Set<Integer> kPreds = preds.get(k);
+				kPreds.remove(k);
+				Rational scale = escapeScale(kOut.remove(k));
+				for (int j : kOut.keySet()) {
+					if (!isTerminal(j)) preds.get(j).remove(k);
+				}
+				for (int i : kPreds) {
+					Map<Integer, Rational> iOut = outs.get(i);
+					Rational pik = iOut.remove(k).mulInPlace(scale);
+					for (Map.Entry<Integer, Rational> e : kOut.entrySet()) {
+						int j = e.getKey();
+						Rational existing = iOut.get(j);
+						if (existing != null) existing.addMul(pik, e.getValue());
+						else {
+							iOut.put(j, pik.mul(e.getValue()));
+							if (!isTerminal(j)) preds.get(j).add(i);
+						}
+					}
+				}
+				outs.set(k, null);
+				preds.set(k, null);
+			}
+
+			//Only the start state is left, and all of its remaining edges lead to terminals.
+			Map<Integer, Rational> startOut = outs.get(start);
+			Rational scale = escapeScale(startOut.remove(start));
+			for (Map.Entry<Integer, Rational> e : startOut.entrySet()) {
+				out[this.terminalIndex[e.getKey()]] = e.getValue().mulInPlace(scale);
+			}
+			return out;
+		}
+
+		/**
+		 * A state with self-loop chance p is left after an expected 1 / (1 - p) visits,
+		 * so that is the factor its outgoing chances are scaled by once the loop is removed.
+		 */
+		static Rational escapeScale(Rational selfLoop) {
+			if (selfLoop == null) return new Rational(1, 1);
+			return new Rational(1, 1).subInPlace(selfLoop).reciprocol();
+		}
+	}
+
+	/**
+	 * An absorbing chain with I - Q LU-factorized once, so that absorption probabilities
+	 * can then be queried for any number of start states at O(n^2) each, instead of re-solving the chain.
+	 * Rows of I - Q are pivoted as the factorization is built, so PA = LU, where perm holds the row order of PA.
+	 * The factorization only depends on Q, so a different R may also be passed in at query time.
+	 */
+	public static class FactorizedChain {
+		final int[] terminals; //Original indices of the terminal states, in order.
+		final int[] transients; //Original indices of the transient states, in order.
+		final int[] stateIndex; //Maps a state to its index in terminals or transients.
+		final Rational[][] lu, r;
+		final int[] perm;
+
+		public FactorizedChain(int[][] m) {
+			List<Integer> terms = new ArrayList<>(), trans = new ArrayList<>();
+			this.stateIndex = new int[m.length];
+			for (int i = 0; i < m.length; i++) {
+				List<Integer> list = getSum(m[i]) == 0 ? terms : trans;
+				this.stateIndex[i] = list.size();
+				list.add(i);
+			}
+			this.terminals = terms.stream().mapToInt(Integer::intValue).toArray();
+			this.transients = trans.stream().mapToInt(Integer::intValue).toArray();
+
+			int n = this.transients.length;
+			this.lu = new Rational[n][n];
+			this.r = new Rational[n][this.terminals.length];
+			this.perm = new int[n];
+			for (int i = 0; i < n; i++) {
+				int[] row = m[this.transients[i]];
+				long sum = getSum(row);
+				for (int j = 0; j < n; j++) {
+					this.lu[i][j] = new Rational(i == j ? sum - row[this.transients[j]] : -row[this.transients[j]], sum);
+				}
+				for (int j = 0; j < this.terminals.length; j++) {
+					this.r[i][j] = new Rational(row[this.terminals[j]], sum);
+				}
+				this.perm[i] = i;
+			}
+			factorize();
+		}
+
+		/**
+		 * Doolittle LU decomposition, performed in place.  L has an implicit unit diagonal.
+		 */
+		void factorize() {
+			int n = this.lu.length;
+			for (int col = 0; col < n; col++) {
+				int pivot = col;
+				while (this.lu[pivot][col].signum() == 0) //I - Q is always invertible for an absorbing chain, so a pivot exists.
+					pivot++;
+				swapRow(this.lu, col, pivot);
+				int p = this.perm[col];
+				this.perm[col] = this.perm[pivot];
+				this.perm[pivot] = p;
+				Rational pivInv = this.lu[col][col].reciprocol();
+				for (int i = col + 1; i < n; i++) {
+					Rational factor = this.lu[i][col];
+					if (factor.signum() == 0) continue;
+					factor.mulInPlace(pivInv);
+					for (int j = col + 1; j < n; j++) {
+						this.lu[i][j].subMul(factor, this.lu[col][j]);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Computes the start-th row of F = (I - Q)^-1, where start is an index into the transient states.
+		 * Since x * (I - Q) = e_start, we solve U^T * w = e_start, then L^T * v = w, and then un-permute v.
+		 */
+		public Rational[] fundamentalRow(int start) {
+			int n = this.lu.length;
+			Rational[] w = new Rational[n];
+			for (int i = 0; i < n; i++) {
+				w[i] = new Rational(i == start ? 1 : 0, 1);
+				for (int k = 0; k < i; k++) {
+					w[i].subMul(this.lu[k][i], w[k]);
+				}
+				w[i].mulInPlace(this.lu[i][i].reciprocol());
+			}
+			for (int i = n - 1; i >= 0; i--) {
+				for (int k = i + 1; k < n; k++) {
+					w[i].subMul(this.lu[k][i], w[k]);
+				}
+			}
+			Rational[] x = new Rational[n];
+			for (int i = 0; i < n; i++) {
+				x[this.perm[i]] = w[i];
+			}
+			return x;
+		}
+
+		/**
+		 * Calculates the chance to be absorbed into each terminal state, when starting in start.
+		 * @param start The start state, as an index into the original state matrix.
+		 * @return The absorption probabilities, in the same order as the terminals.
+		 */
+		public Rational[] absorption(int start) {
+			return absorption(start, this.r);
+		}
+
+		/**
+		 * As {@link #absorption(int)}, but with the transient -> terminal chances replaced by r.
+		 * r must have a row per transient state and a column per terminal state.
+		 */
+		public Rational[] absorption(int start, Rational[][] r) {
+			Rational[] out = new Rational[this.terminals.length];
+			for (int j = 0; j < out.length; j++) {
+				out[j] = new Rational(0, 1);
+			}
+			if (isTerminal(start)) {
+				out[this.stateIndex[start]].set(1, 1);
+				return out;
+			}
+			Rational[] f = fundamentalRow(this.stateIndex[start]);
+			for (int j = 0; j < out.length; j++) {
+				for (int k = 0; k < f.length; k++) {
+					out[j].addMul(f[k], r[k][j]);
+				}
+			}
+			return out;
+		}
+
+		/**
+		 * Calculates the absorption probabilities of a batch of start states.
+		 */
+		public Rational[][] absorption(int[] starts) {
+			Rational[][] out = new Rational[starts.length][];
+			for (int i = 0; i < starts.length; i++) {
+				out[i] = absorption(starts[i]);
+			}
+			return out;
+		}
+
+		/**
+		 * Calculates the absorption probabilities of every state in a single pass, by solving
+		 * (I - Q) * Y = R one terminal column at a time, rather than one start row at a time.
+		 * @return The absorption probabilities, with one row per state in the original state matrix.
+		 */
+		public Rational[][] absorptionMatrix() {
+			int n = this.lu.length;
+			Rational[][] out = new Rational[this.stateIndex.length][this.terminals.length];
+			for (int t = 0; t < this.terminals.length; t++) {
+				Rational[] y = new Rational[n];
+				for (int i = 0; i < n; i++) {
+					y[i] = this.r[this.perm[i]][t].copy();
+					for (int k = 0; k < i; k++) {
+						y[i].subMul(this.lu[i][k], y[k]);
+					}
+				}
+				for (int i = n - 1; i >= 0; i--) {
+					for (int k = i + 1; k < n; k++) {
+						y[i].subMul(this.lu[i][k], y[k]);
+					}
+					y[i].mulInPlace(this.lu[i][i].reciprocol());
+				}
+				for (int i = 0; i < n; i++) {
+					out[this.transients[i]][t] = y[i];
+				}
+				for (int i = 0; i < this.terminals.length; i++) {
+					out[this.terminals[i]][t] = new Rational(i == t ? 1 : 0, 1);
+				}
+			}
+			return out;
+		}
+
+		boolean isTerminal(int state) {
+			int idx = this.stateIndex[state];
+			return idx < this.terminals.length && this.terminals[idx] == state;
+		}
+	}
+
+	/**
+	 * An exact fraction, kept in lowest terms with a positive denominator.
+	 * Arithmetic runs on the long fields while the value fits, and every long operation is overflow checked.
+	 * If an operation would overflow, the value is promoted to BigInteger, and it is demoted back once it fits again.
+	 * The methods suffixed with InPlace, as well as addMul and subMul, mutate this rational instead of allocating a new one.
+	 */
 	public static class Rational {
-		public long num, denom;
+		//Private, as num/denom go stale once the value is promoted.  Read the value through numerator() and denominator().
+		private long num, denom;
+		private BigInteger bigNum, bigDenom; //Only non-null while the value does not fit in num/denom.
 
 		public Rational(long num, long denom) {
 			this.num = num;
 			this.denom = denom;
+			reduce();
 		}
 
-		Rational mul(Rational other) {
-			Rational r = new Rational(this.num * other.num, this.denom * other.denom);
-			r.reduce();
+		Rational copy() {
+			Rational r = new Rational(0, 1);
+			r.num = this.num;
+			r.denom = this.denom;
+			r.bigNum = this.bigNum;
+			r.bigDenom = this.bigDenom;
 			return r;
 		}
 
-		Rational rebase(int factor) {
-			Rational r = new Rational(this.num * factor, this.denom * factor);
-			return r;
+		boolean isBig() {
+			return this.bigNum != null;
+		}
+
+		int signum() {
+			return isBig() ? this.bigNum.signum() : Long.signum(this.num);
+		}
+
+		public BigInteger numerator() {
+			return isBig() ? this.bigNum : BigInteger.valueOf(this.num);
+		}
+
+		public BigInteger denominator() {
+			return isBig() ? this.bigDenom : BigInteger.valueOf(this.denom);
+		}
+
+		Rational set(long num, long denom) {
+			this.num = num;
+			this.denom = denom;
+			this.bigNum = this.bigDenom = null;
+			reduce();
+			return this;
+		}
+
+		/**
+		 * Sets this rational to num/denom, reducing it and demoting it back to longs if possible.
+		 */
+		Rational set(BigInteger num, BigInteger denom) {
+			if (denom.signum() < 0) {
+				num = num.negate();
+				denom = denom.negate();
+			}
+			BigInteger gcd = num.gcd(denom);
+			if (gcd.signum() != 0 && !gcd.equals(BigInteger.ONE)) {
+				num = num.divide(gcd);
+				denom = denom.divide(gcd);
+			}
+			if (num.signum() == 0) denom = BigInteger.ONE;
+			if (num.bitLength() < 64 && denom.bitLength() < 64 && num.longValue() != Long.MIN_VALUE) {
+				this.num = num.longValue();
+				this.denom = denom.longValue();
+				this.bigNum = this.bigDenom = null;
+			} else {
+				this.bigNum = num;
+				this.bigDenom = denom;
+			}
+			return this;
+		}
+
+		Rational mul(Rational other) {
+			return copy().mulInPlace(other);
 		}
 
 		Rational add(Rational other) {
-			if (this.denom == other.denom) return new Rational(this.num + other.num, this.denom);
-			Rational r = new Rational(this.num * other.denom + other.num * this.denom, this.denom * other.denom);
-			r.reduce();
-			return r;
+			return copy().addInPlace(other);
 		}
 
 		Rational sub(Rational other) {
-			if (this.denom == other.denom) return new Rational(this.num - other.num, this.denom);
-			Rational r = new Rational(this.num * other.denom - other.num * this.denom, this.denom * other.denom);
-			r.reduce();
-			return r;
+			return copy().subInPlace(other);
+		}
+
+		Rational mulInPlace(Rational other) {
+			if (!isBig() && !other.isBig()) {
+				try {
+					//Both sides are already reduced, so cross-cancelling first leaves the product reduced.
+					long g1 = gcd(Math.abs(this.num), other.denom);
+					long g2 = gcd(Math.abs(other.num), this.denom);
+					long n = Math.multiplyExact(this.num / g1, other.num / g2);
+					long d = Math.multiplyExact(this.denom / g2, other.denom / g1);
+					return set(n, d);
+				} catch (ArithmeticException e) {
+					//Overflow, fall through to the BigInteger path.
+				}
+			}
+			return set(numerator().multiply(other.numerator()), denominator().multiply(other.denominator()));
+		}
+
+		Rational addInPlace(Rational other) {
+			if (!isBig() && !other.isBig()) return addLong(other.num, other.denom);
+			return addBig(other.numerator(), other.denominator());
+		}
+
+		Rational subInPlace(Rational other) {
+			if (!isBig() && !other.isBig() && other.num != Long.MIN_VALUE) return addLong(-other.num, other.denom);
+			return addBig(other.numerator().negate(), other.denominator());
+		}
+
+		/**
+		 * Accumulates a * b into this rational.
+		 */
+		Rational addMul(Rational a, Rational b) {
+			return addMul(a, b, false);
+		}
+
+		/**
+		 * Accumulates -(a * b) into this rational.
+		 */
+		Rational subMul(Rational a, Rational b) {
+			return addMul(a, b, true);
+		}
+
+		private Rational addMul(Rational a, Rational b, boolean negate) {
+			if (a.signum() == 0 || b.signum() == 0) return this;
+			if (!isBig() && !a.isBig() && !b.isBig()) {
+				long n, d;
+				try {
+					long g1 = gcd(Math.abs(a.num), b.denom);
+					long g2 = gcd(Math.abs(b.num), a.denom);
+					n = Math.multiplyExact(a.num / g1, b.num / g2);
+					d = Math.multiplyExact(a.denom / g2, b.denom / g1);
+					if (negate) n = Math.negateExact(n);
+				} catch (ArithmeticException e) {
+					n = d = 0;
+				}
+				if (d != 0) return addLong(n, d);
+			}
+			BigInteger n = a.numerator().multiply(b.numerator());
+			return addBig(negate ? n.negate() : n, a.denominator().multiply(b.denominator()));
+		}
+
+		/**
+		 * Adds num/denom to this rational, which must not be big.
+		 * The denominators are only scaled by their lcm, instead of being cross-multiplied.
+		 */
+		private Rational addLong(long num, long denom) {
+			try {
+				long gcd = gcd(this.denom, denom);
+				long scale = denom / gcd;
+				long n = Math.addExact(Math.multiplyExact(this.num, scale), Math.multiplyExact(num, this.denom / gcd));
+				long d = Math.multiplyExact(this.denom, scale);
+				return set(n, d);
+			} catch (ArithmeticException e) {
+				return addBig(BigInteger.valueOf(num), BigInteger.valueOf(denom));
+			}
+		}
+
+		private Rational addBig(BigInteger num, BigInteger denom) {
+			BigInteger d = denominator();
+			return set(numerator().multiply(denom).add(num.multiply(d)), d.multiply(denom));
 		}
 
 		Rational reciprocol() {
+			if (isBig()) return new Rational(0, 1).set(this.bigDenom, this.bigNum);
 			return new Rational(this.denom, this.num);
 		}
 
+		/**
+		 * Normalizes the sign onto the numerator and reduces the fraction to lowest terms.
+		 */
 		void reduce() {
+			if (isBig() || this.num == Long.MIN_VALUE || this.denom == Long.MIN_VALUE) {
+				set(numerator(), denominator()); //Can't be negated as a long.
+				return;
+			}
+			if (this.denom < 0) {
+				this.num = -this.num;
+				this.denom = -this.denom;
+			}
 			if (this.num == 0) this.denom = 1;
 			else {
-				long gcd = gcd(num, denom);
+				long gcd = gcd(Math.abs(num), denom);
 				if (gcd != 1) {
 					this.num /= gcd;
 					this.denom /= gcd;
@@ -163,33 +935,45 @@ public class DoomsdayFuel {
 
 		@Override
 		public String toString() {
-			return num + "/" + denom;
+			return numerator() + "/" + denominator();
 		}
 	}
 
+	/**
+	 * Binary (Stein's) gcd, which only needs shifts and subtraction.
+	 * This is the gcd used by all rational operations.  Both inputs must be non-negative.
+	 */
 	public static long gcd(long x, long y) {
-		int gcd = 1;
-		for (int i = 1; i <= x && i <= y; i++) {
-			if (x % i == 0 && y % i == 0) gcd = i;
+		if (x == 0) return y;
+		if (y == 0) return x;
+		int shift = Long.numberOfTrailingZeros(x | y);
+		x >>= Long.numberOfTrailingZeros(x);
+		while (y != 0) {
+			y >>= Long.numberOfTrailingZeros(y);
+			if (x > y) {
+				long t = y;
+				y = x;
+				x = t;
+			}
+			y -= x;
 		}
-		return gcd;
-	}
-
-	public static long zeroGcd(long a, long b) {
-		if (a == 0) return b;
-		return zeroGcd(b % a, a);
+		return x << shift;
 	}
 
 	public static long gcd(long[] a, int n) {
-		long gcd = a[0];
+		long gcd = Math.abs(a[0]);
 
 		for (int i = 1; i < n; i++) {
-			gcd = zeroGcd(gcd, a[i]);
+			gcd = gcd(gcd, Math.abs(a[i]));
 		}
 
 		return gcd;
 	}
 
+	public static long lcm(long x, long y) {
+		return Math.multiplyExact(x / gcd(x, y), y);
+	}
+
 	public static int getSum(int[] row) {
 		int sum = 0;
 		for (int i : row)
@@ -244,39 +1028,6 @@ public class DoomsdayFuel {
 		}
 	}
 
-	public static Rational det(Rational[][] matrix) {
-		if (matrix.length == 1) return matrix[0][0];
-		Rational det = new Rational(0, 1);
-		for (int col = 0; col < matrix.length; col++) {
-			Rational subDet = matrix[0][col].mul(det(cofactor(matrix, col)));
-			det = det.add(col % 2 == 0 ? subDet : subDet.mul(new Rational(-1, 1)));
-		}
-		return det;
-	}
-
-	/**
-	 * Calculates the cofactor of a matrix relative to the given column, 0th row.
-	 * The cofactor is M-1 X M-1 relative to the MXM input matrix.
-	 */
-	public static Rational[][] cofactor(Rational[][] matrix, int col) {
-		return submatrix(matrix, 0, col);
-	}
-
-	/**
-	 * Creates a submatrix by removing the row-th row and col-th column from the matrix.
-	 */
-	public static Rational[][] submatrix(Rational[][] matrix, int row, int col) {
-		Rational[][] submatrix = new Rational[matrix.length - 1][matrix.length - 1];
-		for (int i = 0; i < matrix.length; i++) {
-			if (i == row) continue;
-			for (int j = 0; j < matrix.length; j++) {
-				if (j == col) continue;
-				submatrix[i > row ? i - 1 : i][j > col ? j - 1 : j] = matrix[i][j];
-			}
-		}
-		return submatrix;
-	}
-
 	/**
 	 * Creates a submatrix by removing all rows and columns before the selected ones.
 	 */
@@ -322,29 +1073,4 @@ public class DoomsdayFuel {
 		}
 		return matrix;
 	}
-
-	/**
-	 * Calculates the adjugate matrix for the given matrix.
-	 */
-	public static Rational[][] adjugate(Rational[][] matrix) {
-		Rational[][] adjugate = new Rational[matrix.length][matrix.length];
-		for (int i = 0; i < matrix.length; i++) {
-			for (int j = 0; j < matrix.length; j++) {
-				Rational det = det(submatrix(matrix, j, i));
-				adjugate[i][j] = (i + j) % 2 == 0 ? det : det.mul(new Rational(-1, 1));
-			}
-		}
-		return adjugate;
-	}
-
-	public static Rational[][] inverse(Rational[][] matrix) {
-		Rational[][] adj = adjugate(matrix);
-		Rational detInv = det(matrix).reciprocol();
-		for (int i = 0; i < matrix.length; i++) {
-			for (int j = 0; j < matrix.length; j++) {
-				adj[i][j] = detInv.mul(adj[i][j]);
-			}
-		}
-		return adj;
-	}
 }
\ No newline at end of file
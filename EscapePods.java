@@ -1,9 +1,8 @@
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * @author Brennan Ward
@@ -13,25 +12,128 @@ import java.util.stream.Collectors;
  * We also need to actually make the path into a graph for use.
  * 
  * Once we have the graph, we can use the Ford-Fulkerson method via the Edmonds-Karp algorithm.
- * We also have the option of Dinic's algorithm, but that is harder to implement.
+ * We also have the option of Dinic's algorithm, which is O(V^2 * E) rather than O(V * E^2),
+ * as it pushes a blocking flow through a whole BFS level graph per phase instead of a single path.
+ * On dense graphs, where almost every room connects to every other, highest-label push-relabel is faster still.
+ * 
+ * The residual graph is held in flat int arrays (see {@link FlowGraph}) rather than as objects per room and corridor,
+ * so the algorithms never allocate once the graph is built.
  */
 public class EscapePods {
 
 	public static int solution(int[] entrances, int[] exits, int[][] path) {
-		Room[] graph = buildGraph(toList(entrances), toList(exits), path);
-		Connection[] augPath;
+		return solution(entrances, exits, path, Algorithm.EDMONDS_KARP);
+	}
+
+	public static int solution(int[] entrances, int[] exits, int[][] path, Algorithm algo) {
+		FlowGraph graph = buildGraph(entrances, exits, path);
+		return maxFlow(graph, algo);
+	}
+
+	public static int maxFlow(FlowGraph graph, Algorithm algo) {
+		switch (resolve(graph, algo)) {
+		case DINIC:
+			return dinic(graph);
+		case PUSH_RELABEL:
+			return pushRelabel(graph);
+		default:
+			return edmondsKarp(graph);
+		}
+	}
+
+	/**
+	 * Picks the algorithm AUTO stands for on this graph: push-relabel if it is dense, otherwise Dinic.
+	 * Any other algorithm is returned as is.
+	 */
+	public static Algorithm resolve(FlowGraph graph, Algorithm algo) {
+		if (algo != Algorithm.AUTO) return algo;
+		return isDense(graph) ? Algorithm.PUSH_RELABEL : Algorithm.DINIC;
+	}
+
+	/**
+	 * A graph is considered dense if at least a quarter of all possible corridors exist.
+	 */
+	public static boolean isDense(FlowGraph graph) {
+		return graph.edges / 2 >= (long) graph.nodes * graph.nodes / 4;
+	}
+
+	static final ThreadLocal<FlowGraph> SCRATCH = ThreadLocal.withInitial(() -> new FlowGraph(0, 0));
+
+	/**
+	 * Solves many independent layouts in parallel on the common fork-join pool.
+	 * Each worker thread builds every layout it is given into the same scratch graph, so the arrays are only
+	 * allocated when a layout is larger than any that thread has seen before.
+	 * @return The results, in the same order as the layouts.
+	 */
+	public static List<FlowResult> solveAll(List<int[]> entrances, List<int[]> exits, List<int[][]> paths, Algorithm algo) {
+		return IntStream.range(0, paths.size()).parallel().mapToObj(i -> {
+			FlowGraph graph = buildGraph(entrances.get(i), exits.get(i), paths.get(i), SCRATCH.get());
+			Algorithm used = resolve(graph, algo);
+			int flow = maxFlow(graph, used);
+			return new FlowResult(flow, minCut(graph, used));
+		}).collect(Collectors.toList());
+	}
+
+	/**
+	 * Finds the corridors of the minimum cut, after the max flow was found with the given algorithm.
+	 * These are the saturated corridors leading out of the rooms that the source can still reach in the residual graph.
+	 * The final, failed BFS of Edmonds-Karp or Dinic already marked those rooms, so no second pass is needed.
+	 * Push-relabel only leaves a preflow, so the cut is instead taken around the rooms that can still reach the sink.
+	 * AUTO is resolved the same way as in {@link #maxFlow}, so it reads the state left by the algorithm that actually ran.
+	 * @return The cut corridors, as {from, to} pairs of indices into the path matrix.
+	 */
+	public static List<int[]> minCut(FlowGraph graph, Algorithm algo) {
+		algo = resolve(graph, algo);
+		boolean[] sourceSide = new boolean[graph.nodes];
+		for (int v = 0; v < graph.nodes; v++) {
+			if (algo == Algorithm.EDMONDS_KARP) sourceSide[v] = v == graph.source || graph.pathEdge[v] != -1;
+			else if (algo == Algorithm.DINIC) sourceSide[v] = graph.level[v] != Integer.MAX_VALUE;
+		}
+		if (algo == Algorithm.PUSH_RELABEL) {
+			int[] queue = graph.queue;
+			Arrays.fill(sourceSide, true);
+			int head = 0, tail = 0;
+			sourceSide[graph.sink] = false;
+			queue[tail++] = graph.sink;
+			while (head < tail) {
+				int room = queue[head++];
+				for (int e = graph.head[room]; e != -1; e = graph.next[e]) {
+					int v = graph.to[e];
+					if (sourceSide[v] && graph.residual(e ^ 1) > 0) {
+						sourceSide[v] = false;
+						queue[tail++] = v;
+					}
+				}
+			}
+		}
+
+		List<int[]> cut = new ArrayList<>();
+		for (int e = 0; e < graph.edges; e += 2) {
+			int src = graph.to[e ^ 1], dest = graph.to[e];
+			if (src == graph.source || dest == graph.sink) continue;
+			if (sourceSide[src] && !sourceSide[dest]) cut.add(new int[] { src - 1, dest - 1 });
+		}
+		return cut;
+	}
+
+	public static int edmondsKarp(FlowGraph graph) {
+		return augment(graph, graph.source, graph.sink, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Repeatedly pushes flow along the shortest augmenting path from one room to another,
+	 * until there are no more paths, or limit flow has been moved.
+	 * @return The amount of flow that was moved.
+	 */
+	public static int augment(FlowGraph graph, int from, int to, int limit) {
 		int flow = 0;
-		while ((augPath = findPath(graph)) != null) {
-			Connection c = augPath[graph.length - 1];
-			int flowConsumed = 1000000;
-			while (c != null) {
-				flowConsumed = Math.min(c.capacity - c.flow, flowConsumed);
-				c = augPath[c.src];
-			}
-			c = augPath[graph.length - 1];
-			while (c != null) {
-				c.addFlow(flowConsumed);
-				c = augPath[c.src];
+		while (flow < limit && findPath(graph, from, to)) {
+			int flowConsumed = limit - flow;
+			for (int v = to; v != from; v = graph.to[graph.pathEdge[v] ^ 1]) {
+				flowConsumed = Math.min(graph.residual(graph.pathEdge[v]), flowConsumed);
+			}
+			for (int v = to; v != from; v = graph.to[graph.pathEdge[v] ^ 1]) {
+				graph.addFlow(graph.pathEdge[v], flowConsumed);
 			}
 			flow += flowConsumed;
 		}
@@ -44,102 +146,483 @@ public class EscapePods {
 	 * That is, the supersource has infinite flow to each entrance,
 	 * and the supersink has infinite flow from each exit.
 	 */
-	public static Room[] buildGraph(List<Integer> entrances, List<Integer> exits, int[][] path) {
-		Room[] rooms = new Room[path.length + 2];
-		for (int i = 0; i < rooms.length; i++) {
-			rooms[i] = new Room(i);
+	public static FlowGraph buildGraph(int[] entrances, int[] exits, int[][] path) {
+		return buildGraph(entrances, exits, path, new FlowGraph(0, 0));
+	}
+
+	/**
+	 * As {@link #buildGraph(int[], int[], int[][])}, but built into an existing graph, reusing its arrays.
+	 */
+	public static FlowGraph buildGraph(int[] entrances, int[] exits, int[][] path, FlowGraph graph) {
+		int edges = entrances.length + exits.length;
+		for (int[] connections : path) {
+			for (int capacity : connections) {
+				if (capacity > 0) edges++;
+			}
 		}
+		graph.reset(path.length + 2, edges);
 
 		for (int i : entrances) { //Connect from Supersource to "real" entrances.
-			makeConnection(rooms, rooms[0], i + 1, 1000000);
+			graph.addEdge(graph.source, i + 1, 1000000);
 		}
 
 		for (int i = 0; i < path.length; i++) {
-			Room room = rooms[i + 1];
 			int[] connections = path[i];
 			for (int k = 0; k < connections.length; k++) {
-				int dest = k + 1;
 				int capacity = connections[k];
 				if (capacity <= 0) continue;
-				makeConnection(rooms, room, dest, capacity);
+				graph.addEdge(i + 1, k + 1, capacity);
 			}
 		}
 
 		for (int i : exits) { //Connect from "real" exits to Supersink.
-			makeConnection(rooms, rooms[i + 1], rooms.length - 1, 1000000);
+			graph.addEdge(i + 1, graph.sink, 1000000);
 		}
 
-		return rooms;
+		return graph;
 	}
 
 	/**
-	 * Creates a connection between src and dest.
-	 * Also handles creation of the reverse connection (with capacity zero),
-	 * and the link of the reverse and forward connections.
+	 * BFS method to find an augmenting path in the residual graph.
+	 * The main graph is actually the same thing as the residual graph,
+	 * as all edges hold their current flow.
+	 * The path is left in {@link FlowGraph#pathEdge}, which holds the edge used to reach each room.
+	 * @return If an augmenting path was found.
 	 */
-	public static void makeConnection(Room[] rooms, Room src, int dest, int capacity) {
-		Connection forward = new Connection(src.id, dest, capacity);
-		Connection rev = new Connection(dest, src.id, 0);
-		forward.reverse = rev;
-		rev.reverse = forward;
-		src.connections.add(forward);
-		rooms[dest].connections.add(rev);
+	public static boolean findPath(FlowGraph graph) {
+		return findPath(graph, graph.source, graph.sink);
 	}
 
 	/**
-	 * BFS method to find an augmenting path in the residual graph.
-	 * The main graph is actually the same thing as the residual graph,
-	 * as all connections hold their current flow.
-	 * @return The augmenting path, as an array of edges.
-	 */
-	public static Connection[] findPath(Room[] graph) {
-		Queue<Room> queue = new LinkedList<>();
-		Connection[] path = new Connection[graph.length]; //Path array, which holds the backtrack of the paths.
-		queue.add(graph[0]);
-
-		while (!queue.isEmpty()) {
-			Room room = queue.poll();
-			for (Connection c : room.connections) {
-				Room n = graph[c.dest];
-				if (n.id != 0 && path[n.id] == null && c.capacity - c.flow > 0) {
-					path[n.id] = c;
-					queue.add(n);
-					if (n.id == graph.length - 1) return path; //We've found the sink, exit.
+	 * As {@link #findPath(FlowGraph)}, but between any two rooms.
+	 */
+	public static boolean findPath(FlowGraph graph, int from, int to) {
+		int[] queue = graph.queue;
+		int[] pathEdge = graph.pathEdge;
+		Arrays.fill(pathEdge, -1);
+		int head = 0, tail = 0;
+		queue[tail++] = from;
+
+		while (head < tail) {
+			int room = queue[head++];
+			for (int e = graph.head[room]; e != -1; e = graph.next[e]) {
+				int n = graph.to[e];
+				if (n != from && pathEdge[n] == -1 && graph.residual(e) > 0) {
+					pathEdge[n] = e;
+					queue[tail++] = n;
+					if (n == to) return true; //We've found the target, exit.
 				}
 			}
 		}
-		return null;
+		return false;
 	}
 
-	static List<Integer> toList(int[] arr) {
-		return Arrays.stream(arr).boxed().collect(Collectors.toList());
+	/**
+	 * Dinic's algorithm.  Each phase builds the level graph with a BFS from the source,
+	 * and then saturates it with a blocking flow found via DFS along edges that go up exactly one level.
+	 * The current-arc pointers mean each edge is only ever retried until it is found to be a dead end within a phase.
+	 */
+	public static int dinic(FlowGraph graph) {
+		int flow = 0;
+		while (buildLevels(graph)) {
+			System.arraycopy(graph.head, 0, graph.currentArc, 0, graph.nodes);
+			int pushed;
+			while ((pushed = blockingFlow(graph, graph.source, Integer.MAX_VALUE)) > 0) {
+				flow += pushed;
+			}
+		}
+		return flow;
 	}
 
-	public static class Room {
-		final int id;
-		int level = Integer.MAX_VALUE;
-		List<Connection> connections = new ArrayList<>();
+	/**
+	 * BFS method to assign each room its distance from the source in the residual graph.
+	 * @return If the sink is still reachable.
+	 */
+	public static boolean buildLevels(FlowGraph graph) {
+		int[] queue = graph.queue;
+		int[] level = graph.level;
+		Arrays.fill(level, Integer.MAX_VALUE);
+		int head = 0, tail = 0;
+		level[graph.source] = 0;
+		queue[tail++] = graph.source;
 
-		public Room(int id) {
-			this.id = id;
+		while (head < tail) {
+			int room = queue[head++];
+			for (int e = graph.head[room]; e != -1; e = graph.next[e]) {
+				int n = graph.to[e];
+				if (level[n] == Integer.MAX_VALUE && graph.residual(e) > 0) {
+					level[n] = level[room] + 1;
+					queue[tail++] = n;
+				}
+			}
 		}
+		return level[graph.sink] != Integer.MAX_VALUE;
 	}
 
-	public static class Connection {
-		final int src, dest, capacity;
-		int flow = 0;
-		Connection reverse;
+	/**
+	 * DFS method to push up to limit flow from the room to the sink along the level graph.
+	 * The DFS is iterative, keeping the edges of the current path on {@link FlowGraph#queue} as a stack,
+	 * as a recursive one overflows the call stack on long corridors of rooms.
+	 * When a room is a dead end, the path retreats and the edge into it is skipped via its current-arc pointer.
+	 * @return The amount of flow that was pushed.
+	 */
+	static int blockingFlow(FlowGraph graph, int room, int limit) {
+		int[] stack = graph.queue;
+		int depth = 0;
+		int u = room;
+		while (u != graph.sink) {
+			int e = graph.currentArc[u];
+			while (e != -1 && (graph.residual(e) <= 0 || graph.level[graph.to[e]] != graph.level[u] + 1)) {
+				e = graph.currentArc[u] = graph.next[e];
+			}
+			if (e != -1) {
+				stack[depth++] = e;
+				u = graph.to[e];
+				continue;
+			}
+			if (depth == 0) return 0;
+			//Dead end, so step back and move the previous room past the edge that led here.
+			int back = stack[--depth];
+			u = graph.to[back ^ 1];
+			graph.currentArc[u] = graph.next[back];
+		}
+
+		int pushed = limit;
+		for (int i = 0; i < depth; i++)
+			pushed = Math.min(pushed, graph.residual(stack[i]));
+		for (int i = 0; i < depth; i++)
+			graph.addFlow(stack[i], pushed);
+		return pushed;
+	}
+
+	/**
+	 * Push-relabel, processing the active room with the highest label first.
+	 * Only the first phase is run, which leaves a maximum preflow: the excess at the sink is the max flow,
+	 * but rooms that can no longer reach the sink may keep excess that is never returned to the source.
+	 * Two heuristics keep the labels tight.  Global relabeling periodically resets every label to the exact
+	 * residual distance to the sink with a reverse BFS, and the gap heuristic lifts every room above an
+	 * emptied label straight to n, as none of them can reach the sink anymore.
+	 */
+	public static int pushRelabel(FlowGraph graph) {
+		int n = graph.nodes;
+		int[] height = graph.level;
+		int[] arc = graph.currentArc;
+		long[] excess = new long[n];
+		int[] count = new int[n + 1];
+		int[] bucketHead = new int[n];
+		int[] bucketNext = new int[n];
+
+		for (int e = graph.head[graph.source]; e != -1; e = graph.next[e]) {
+			int r = graph.residual(e);
+			if (r <= 0) continue;
+			graph.addFlow(e, r);
+			excess[graph.to[e]] += r;
+		}
+
+		int highest = globalRelabel(graph, excess, count, bucketHead, bucketNext);
+		int relabels = 0;
+		while (highest >= 0) {
+			int u = bucketHead[highest];
+			if (u == -1) {
+				highest--;
+				continue;
+			}
+			bucketHead[highest] = bucketNext[u];
+
+			while (excess[u] > 0) { //Discharge u, until it has no excess or is lifted out of reach of the sink.
+				int e = arc[u];
+				if (e == -1) {
+					relabels++;
+					int old = height[u];
+					int newHeight = n;
+					for (int f = graph.head[u]; f != -1; f = graph.next[f]) {
+						if (graph.residual(f) > 0) newHeight = Math.min(newHeight, height[graph.to[f]] + 1);
+					}
+					if (old < n && --count[old] == 0) { //Gap heuristic, skipped for rooms already lifted to n, as they are not counted.
+						for (int v = 0; v < n; v++) {
+							if (height[v] > old && height[v] < n) {
+								count[height[v]]--;
+								height[v] = n;
+							}
+						}
+						newHeight = n;
+					}
+					height[u] = newHeight;
+					arc[u] = graph.head[u];
+					if (newHeight >= n) break;
+					count[newHeight]++;
+					continue;
+				}
+				int v = graph.to[e];
+				int r = graph.residual(e);
+				if (r > 0 && height[u] == height[v] + 1) {
+					int d = (int) Math.min(excess[u], r);
+					if (excess[v] == 0 && v != graph.sink && v != graph.source) {
+						bucketNext[v] = bucketHead[height[v]];
+						bucketHead[height[v]] = v;
+						highest = Math.max(highest, height[v]);
+					}
+					graph.addFlow(e, d);
+					excess[u] -= d;
+					excess[v] += d;
+				} else arc[u] = graph.next[e];
+			}
+
+			if (relabels >= n) {
+				highest = globalRelabel(graph, excess, count, bucketHead, bucketNext);
+				relabels = 0;
+			}
+		}
+		return (int) excess[graph.sink];
+	}
+
+	/**
+	 * Reverse BFS from the sink, setting every room's label to its residual distance to the sink,
+	 * or n if it cannot reach the sink.  The active room buckets are rebuilt to match.
+	 * @return The highest label of any active room, or -1 if there are none.
+	 */
+	static int globalRelabel(FlowGraph graph, long[] excess, int[] count, int[] bucketHead, int[] bucketNext) {
+		int n = graph.nodes;
+		int[] height = graph.level;
+		int[] queue = graph.queue;
+		Arrays.fill(height, n);
+		Arrays.fill(count, 0);
+		Arrays.fill(bucketHead, -1);
+		System.arraycopy(graph.head, 0, graph.currentArc, 0, n);
+		int head = 0, tail = 0;
+		height[graph.sink] = 0;
+		queue[tail++] = graph.sink;
+
+		while (head < tail) {
+			int room = queue[head++];
+			count[height[room]]++;
+			for (int e = graph.head[room]; e != -1; e = graph.next[e]) {
+				int v = graph.to[e];
+				if (height[v] == n && v != graph.source && graph.residual(e ^ 1) > 0) {
+					height[v] = height[room] + 1;
+					queue[tail++] = v;
+				}
+			}
+		}
+
+		int highest = -1;
+		for (int v = 0; v < n; v++) {
+			if (excess[v] > 0 && height[v] < n && v != graph.sink) {
+				bucketNext[v] = bucketHead[height[v]];
+				bucketHead[height[v]] = v;
+				highest = Math.max(highest, height[v]);
+			}
+		}
+		return highest;
+	}
+
+	public enum Algorithm {
+		EDMONDS_KARP,
+		DINIC,
+		PUSH_RELABEL,
+		AUTO;
+	}
+
+	public static class FlowResult {
+		public final int flow;
+		public final List<int[]> minCut;
+
+		public FlowResult(int flow, List<int[]> minCut) {
+			this.flow = flow;
+			this.minCut = minCut;
+		}
+	}
+
+	/**
+	 * A max-flow that is kept up to date as the layout changes, rather than being solved from scratch each time.
+	 * The residual graph is kept between updates, so a change only needs to repair the existing flow:
+	 * added capacity is used by resuming Dinic's algorithm, and when a corridor is cut below its current flow,
+	 * the overflow is rerouted or returned to the source and sink along residual paths before resuming.
+	 * Entrances, exits and corridors are all indexed as in the path matrix.
+	 */
+	public static class FlowSession {
+		final FlowGraph graph;
+		final int[][] corridors; //The edge of each corridor, or -1 if it has never had capacity.
+		final int[] entranceEdge, exitEdge;
+		int flow;
+
+		public FlowSession(int[] entrances, int[] exits, int[][] path) {
+			this.graph = buildGraph(entrances, exits, path);
+			this.corridors = new int[path.length][path.length];
+			this.entranceEdge = new int[path.length];
+			this.exitEdge = new int[path.length];
+			for (int[] row : this.corridors) {
+				Arrays.fill(row, -1);
+			}
+			Arrays.fill(this.entranceEdge, -1);
+			Arrays.fill(this.exitEdge, -1);
+			for (int e = 0; e < this.graph.edges; e += 2) {
+				int src = this.graph.to[e ^ 1], dest = this.graph.to[e];
+				if (src == this.graph.source) this.entranceEdge[dest - 1] = e;
+				else if (dest == this.graph.sink) this.exitEdge[src - 1] = e;
+				else this.corridors[src - 1][dest - 1] = e;
+			}
+			this.flow = dinic(this.graph);
+		}
+
+		public int maxFlow() {
+			return this.flow;
+		}
+
+		/**
+		 * Changes the capacity of the corridor between two rooms.
+		 * @return The updated max flow.
+		 */
+		public int setCapacity(int from, int to, int capacity) {
+			capacity = Math.max(capacity, 0);
+			int e = this.corridors[from][to];
+			if (e == -1) {
+				if (capacity == 0) return this.flow;
+				e = this.corridors[from][to] = this.graph.edges;
+				this.graph.addEdge(from + 1, to + 1, 0);
+			}
+			int old = this.graph.capacity[e];
+			int overflow = this.graph.flow[e] - capacity;
+			this.graph.capacity[e] = capacity;
+			if (overflow > 0) {
+				this.graph.flow[e] -= overflow;
+				this.graph.flow[e ^ 1] += overflow;
+				//The corridor's start is now left with excess, and its end is left short.  The excess is either rerouted to the end,
+				//or returned to the source while the end takes back what it sent to the sink.  The temporary supersource -> supersink
+				//edge lets a single search do both, as following it is the same as cancelling a unit of flow.
+				this.graph.addEdge(this.graph.source, this.graph.sink, Integer.MAX_VALUE);
+				augment(this.graph, from + 1, to + 1, overflow);
+				this.graph.removeLastEdge();
+			} else if (capacity <= old) return this.flow; //The flow still fits, so nothing changes.
+			return resume();
+		}
+
+		/**
+		 * Marks a room as an entrance.
+		 * @return The updated max flow.
+		 */
+		public int addEntrance(int room) {
+			if (this.entranceEdge[room] != -1) return this.flow;
+			this.entranceEdge[room] = this.graph.edges;
+			this.graph.addEdge(this.graph.source, room + 1, 1000000);
+			return resume();
+		}
+
+		/**
+		 * Marks a room as an exit.
+		 * @return The updated max flow.
+		 */
+		public int addExit(int room) {
+			if (this.exitEdge[room] != -1) return this.flow;
+			this.exitEdge[room] = this.graph.edges;
+			this.graph.addEdge(room + 1, this.graph.sink, 1000000);
+			return resume();
+		}
+
+		/**
+		 * Augments the current flow back up to a maximum, and recounts it from the supersource's edges.
+		 */
+		int resume() {
+			dinic(this.graph);
+			int flow = 0;
+			for (int e = this.graph.head[this.graph.source]; e != -1; e = this.graph.next[e]) {
+				flow += this.graph.flow[e];
+			}
+			return this.flow = flow;
+		}
+	}
+
+	/**
+	 * The residual graph, stored as flat arrays.
+	 * Each room's edges form a linked list through head and next, and every edge is added
+	 * alongside its reverse (with capacity zero), so the reverse of edge e is always e ^ 1.
+	 * The BFS queue and per-room scratch arrays are allocated once here and reused by every pass.
+	 */
+	public static class FlowGraph {
+		int nodes, source, sink;
+		int[] head, next, to, capacity, flow;
+		int edges = 0;
+
+		int[] queue, pathEdge, level, currentArc;
+
+		public FlowGraph(int nodes, int maxEdges) {
+			reset(nodes, maxEdges);
+		}
+
+		/**
+		 * Clears the graph, so it can be rebuilt for another layout.
+		 * The arrays are only reallocated if they are too small, so a graph can be reused as scratch space.
+		 */
+		public FlowGraph reset(int nodes, int maxEdges) {
+			this.nodes = nodes;
+			this.source = 0;
+			this.sink = nodes - 1;
+			this.edges = 0;
+			if (this.head == null || this.head.length < nodes) {
+				this.head = new int[nodes];
+				this.queue = new int[nodes];
+				this.pathEdge = new int[nodes];
+				this.level = new int[nodes];
+				this.currentArc = new int[nodes];
+			}
+			Arrays.fill(this.head, 0, nodes, -1);
+			if (this.to == null || this.to.length < maxEdges * 2) {
+				this.next = new int[maxEdges * 2];
+				this.to = new int[maxEdges * 2];
+				this.capacity = new int[maxEdges * 2];
+				this.flow = new int[maxEdges * 2];
+			}
+			return this;
+		}
+
+		/**
+		 * Creates an edge between src and dest.
+		 * Also handles creation of the reverse edge (with capacity zero).
+		 */
+		public void addEdge(int src, int dest, int capacity) {
+			link(src, dest, capacity);
+			link(dest, src, 0);
+		}
+
+		private void link(int src, int dest, int capacity) {
+			if (this.edges == this.to.length) grow();
+			int e = this.edges++;
+			this.to[e] = dest;
+			this.capacity[e] = capacity;
+			this.flow[e] = 0;
+			this.next[e] = this.head[src];
+			this.head[src] = e;
+		}
+
+		/**
+		 * Removes the most recently added edge, and its reverse.
+		 */
+		void removeLastEdge() {
+			int e = this.edges - 2;
+			this.head[this.to[e + 1]] = this.next[e];
+			this.head[this.to[e]] = this.next[e + 1];
+			this.edges = e;
+		}
+
+		/**
+		 * Doubles the edge arrays, for edges added after the graph was built.
+		 */
+		private void grow() {
+			int size = Math.max(2, this.to.length * 2);
+			this.next = Arrays.copyOf(this.next, size);
+			this.to = Arrays.copyOf(this.to, size);
+			this.capacity = Arrays.copyOf(this.capacity, size);
+			this.flow = Arrays.copyOf(this.flow, size);
+		}
 
-		public Connection(int src, int dest, int capacity) {
-			this.src = src;
-			this.dest = dest;
-			this.capacity = capacity;
+		public int residual(int e) {
+			return this.capacity[e] - this.flow[e];
 		}
 
-		public void addFlow(int flow) {
-			if (this.flow + flow > capacity) throw new RuntimeException("Connection Flow Exceeded!");
-			this.flow += flow;
-			this.reverse.flow -= flow;
+		public void addFlow(int e, int flow) {
+			if (this.flow[e] + flow > this.capacity[e]) throw new RuntimeException("Connection Flow Exceeded!");
+			this.flow[e] += flow;
+			this.flow[e ^ 1] -= flow;
 		}
 	}
 
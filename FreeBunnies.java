@@ -1,6 +1,6 @@
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 
 /**
  * @author Brennan Ward
@@ -14,8 +14,8 @@ public class FreeBunnies {
 	/**
 	 * Input guarantees: 
 	 * bunnies >= required
-	 * bunnies is within [1-9]
-	 * required is within [1-9]
+	 * bunnies is within [1-63]
+	 * required is within [1-63]
 	 * 
 	 * In the case where bunnies == required, we return an array of single-element arrays of increasing values.
 	 * In the case where required == 1, we return an array of single-element arrays of zeroes.
@@ -23,66 +23,214 @@ public class FreeBunnies {
 	 * In this final case, we have (bunnies, required - 1) (as a binomial coefficient) keys.
 	 * Then, there are bunnies - required + 1 copies of each key.
 	 * Each bunny holds (keys * keyCopies / bunnies) keys.
+	 * 
+	 * Key i goes to the i-th set of keyCopies bunnies in lexicographic order.  The sets are walked as long bitmasks,
+	 * with bunny b as bit (bunnies - 1 - b), where lexicographic order is descending numeric order.
+	 * Gosper's hack steps through them in ascending order, so the keys are handed out from last to first,
+	 * and each bunny's row is filled from the back to keep its keys ascending.
 	 */
 	public static int[][] solution(int bunnies, int required) {
+		if (bunnies > 63) throw new IllegalArgumentException("At most 63 bunnies are supported, got " + bunnies);
 		int keys = binomCoeff(bunnies, required - 1);
 		int keyCopies = bunnies - required + 1;
-		Bunny[] bunList = new Bunny[bunnies];
-		for (int i = 0; i < bunnies; i++)
-			bunList[i] = new Bunny();
+		int perBunny = Math.toIntExact(Math.multiplyExact((long) keys, keyCopies) / bunnies);
+		int[][] out = new int[bunnies][perBunny];
+		if (keys == 0) return out;
 
-		List<Bunny[]> combos = new ArrayList<>();
+		int[] filled = new int[bunnies];
+		long set = (1L << keyCopies) - 1;
+		for (int key = keys - 1; key >= 0; key--) {
+			for (long bits = set; bits != 0; bits &= bits - 1) {
+				int b = bunnies - 1 - Long.numberOfTrailingZeros(bits);
+				out[b][perBunny - ++filled[b]] = key;
+			}
+			if (key > 0) set = nextSet(set);
+		}
+		return out;
+	}
 
-		combinations(bunList, keyCopies, 0, new Bunny[keyCopies], combos);
+	/**
+	 * Pascal's triangle up to 63, where every entry fits in a long.
+	 */
+	static final long[][] BINOM = new long[64][64];
 
-		for (int i = 0; i < keys; i++) {
-			for (Bunny b : combos.get(i))
-				b.keys.add(i);
+	static {
+		for (int m = 0; m < BINOM.length; m++) {
+			BINOM[m][0] = 1;
+			for (int n = 1; n <= m; n++)
+				BINOM[m][n] = BINOM[m - 1][n - 1] + BINOM[m - 1][n];
 		}
-		return toOutput(bunList);
 	}
 
-	static int[][] toOutput(Bunny[] bunnies) {
-		int[][] out = new int[bunnies.length][bunnies[0].keys.size()];
-		for (int i = 0; i < bunnies.length; i++) {
-			List<Integer> keys = bunnies[i].keys;
-			for (int j = 0; j < keys.size(); j++) {
-				out[i][j] = keys.get(j);
+	static long choose(int m, int n) {
+		return n < 0 || n > m ? 0 : BINOM[m][n];
+	}
+
+	/**
+	 * The same key distribution as {@link #solution}, but computed lazily, for when the full table is too large to hold.
+	 * Keys are numbered by the lexicographic rank of their set of holders in the combinatorial number system,
+	 * so the holders of a key, or the j-th key of a bunny, can be found directly in O(bunnies) without enumerating anything.
+	 */
+	public static class KeyPlan {
+		public final int bunnies, required, keyCopies;
+		public final long keys, keysPerBunny;
+
+		public KeyPlan(int bunnies, int required) {
+			if (bunnies > 63) throw new IllegalArgumentException("At most 63 bunnies are supported, got " + bunnies);
+			if (required < 1 || required > bunnies) throw new IllegalArgumentException("Required must be within [1-" + bunnies + "], got " + required);
+			this.bunnies = bunnies;
+			this.required = required;
+			this.keyCopies = bunnies - required + 1;
+			this.keys = choose(bunnies, required - 1);
+			this.keysPerBunny = choose(bunnies - 1, this.keyCopies - 1);
+		}
+
+		/**
+		 * Finds who holds the given key, in ascending order.
+		 */
+		public int[] holders(long key) {
+			if (key < 0 || key >= this.keys) throw new IndexOutOfBoundsException("Key " + key + " out of range for " + this.keys + " keys");
+			return unrank(this.bunnies, this.keyCopies, key);
+		}
+
+		/**
+		 * Finds which key is held by exactly the given bunnies, which must be in ascending order.
+		 */
+		public long key(int[] holders) {
+			if (holders.length != this.keyCopies) throw new IllegalArgumentException("Every key has " + this.keyCopies + " holders, got " + holders.length);
+			return rank(this.bunnies, holders);
+		}
+
+		/**
+		 * Finds the j-th key held by a bunny, counting from zero in ascending order.
+		 * The keys held by a bunny are the holder sets containing it, and removing it from each keeps their order,
+		 * so this is the j-th set of the other bunnies with the bunny put back in.
+		 */
+		public long keyOf(int bunny, long j) {
+			if (j < 0 || j >= this.keysPerBunny) throw new IndexOutOfBoundsException("Bunny " + bunny + " holds " + this.keysPerBunny + " keys, asked for " + j);
+			int[] others = unrank(this.bunnies - 1, this.keyCopies - 1, j);
+			int[] holders = new int[this.keyCopies];
+			int k = 0;
+			boolean placed = false;
+			for (int other : others) {
+				int b = other < bunny ? other : other + 1; //Relabel back around the removed bunny.
+				if (!placed && b > bunny) {
+					holders[k++] = bunny;
+					placed = true;
+				}
+				holders[k++] = b;
 			}
+			if (!placed) holders[k] = bunny;
+			return rank(this.bunnies, holders);
 		}
-		return out;
-	}
 
-	private static class Bunny {
-		List<Integer> keys = new ArrayList<>();
+		/**
+		 * Lazily walks the keys held by a bunny in ascending order.
+		 */
+		public PrimitiveIterator.OfLong keysOf(int bunny) {
+			return new PrimitiveIterator.OfLong() {
+				long j = 0;
 
-		@Override
-		public String toString() {
-			return "Bunny: " + Arrays.toString(keys.toArray());
+				@Override
+				public boolean hasNext() {
+					return this.j < KeyPlan.this.keysPerBunny;
+				}
+
+				@Override
+				public long nextLong() {
+					if (!this.hasNext()) throw new NoSuchElementException();
+					return KeyPlan.this.keyOf(bunny, this.j++);
+				}
+			};
 		}
-	}
 
-	public static int binomCoeff(int m, int n) {
-		return factorial(m) / (factorial(n) * factorial(m - n));
+		/**
+		 * Lazily walks the holders of every key in [from, to), in key order, so the distribution can be paged or sharded.
+		 * Only the first holder set is unranked, and each one after is the next combination in lexicographic order.
+		 */
+		public Iterator<int[]> holderSets(long from, long to) {
+			if (from < 0 || to > this.keys || from > to) throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") out of range for " + this.keys + " keys");
+			int n = this.bunnies, k = this.keyCopies;
+			return new Iterator<int[]>() {
+				long key = from;
+				int[] set = from < to ? unrank(n, k, from) : null;
+
+				@Override
+				public boolean hasNext() {
+					return this.key < to;
+				}
+
+				@Override
+				public int[] next() {
+					if (!this.hasNext()) throw new NoSuchElementException();
+					int[] current = this.set.clone();
+					if (++this.key < to) {
+						int i = k - 1;
+						while (this.set[i] == n - k + i)
+							i--;
+						this.set[i]++;
+						for (int j = i + 1; j < k; j++)
+							this.set[j] = this.set[j - 1] + 1;
+					}
+					return current;
+				}
+			};
+		}
 	}
 
-	public static int factorial(int n) {
-		int fac = 1;
-		for (int i = 2; i <= n; i++) {
-			fac *= i;
+	/**
+	 * Finds the size k subset of [0, n) with the given lexicographic rank.
+	 * For each position, every smaller candidate v is skipped along with the C(n - 1 - v, k - 1 - i) sets that start with it.
+	 */
+	static int[] unrank(int n, int k, long rank) {
+		int[] set = new int[k];
+		int v = 0;
+		for (int i = 0; i < k; i++, v++) {
+			long count;
+			while (rank >= (count = choose(n - 1 - v, k - 1 - i))) {
+				rank -= count;
+				v++;
+			}
+			set[i] = v;
 		}
-		return fac;
+		return set;
 	}
 
-	static void combinations(Bunny[] arr, int len, int startPosition, Bunny[] result, List<Bunny[]> combos) {
-		if (len == 0) {
-			combos.add(Arrays.copyOf(result, result.length));
-			return;
+	/**
+	 * The inverse of {@link #unrank}, for an ascending subset of [0, n).
+	 */
+	static long rank(int n, int[] set) {
+		int k = set.length;
+		long rank = 0;
+		int v = 0;
+		for (int i = 0; i < k; i++, v++) {
+			for (; v < set[i]; v++)
+				rank += choose(n - 1 - v, k - 1 - i);
 		}
-		for (int i = startPosition; i <= arr.length - len; i++) {
-			result[result.length - len] = arr[i];
-			combinations(arr, len - 1, i + 1, result, combos);
+		return rank;
+	}
+
+	/**
+	 * Gosper's hack, which gives the next larger number with the same number of set bits.
+	 */
+	static long nextSet(long set) {
+		long lowest = set & -set;
+		long ripple = set + lowest;
+		return ripple | ((set ^ ripple) >>> 2) / lowest;
+	}
+
+	/**
+	 * Computes m choose n, throwing an ArithmeticException if it doesn't fit in an int.
+	 * Each partial product is itself a binomial coefficient, so the division is always exact.
+	 */
+	public static int binomCoeff(int m, int n) {
+		if (n < 0 || n > m) return 0;
+		n = Math.min(n, m - n);
+		long coeff = 1;
+		for (int i = 0; i < n; i++) {
+			coeff = Math.multiplyExact(coeff, m - i) / (i + 1);
 		}
+		return Math.toIntExact(coeff);
 	}
 
 }
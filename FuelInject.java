@@ -1,4 +1,8 @@
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  * @author Brennan Ward
@@ -6,38 +10,191 @@ import java.math.BigInteger;
  * The Fuel Injectors problem asks "how fast can we get to one"
  * Given that the only operations are to add one, subtract one
  * and divide by two.
+ * 
+ * Even numbers are always halved.  For an odd number, one of n - 1 and n + 1 is divisible by four,
+ * and moving to that one lets us halve at least twice, so the choice only depends on the low two bits.
+ * The one exception is 3, where 3 -> 2 -> 1 beats 3 -> 4 -> 2 -> 1.
  */
 public class FuelInject {
 
-	static BigInteger three = BigInteger.valueOf(3);
-	static BigInteger two = BigInteger.valueOf(2);
-	static BigInteger one = BigInteger.ONE;
-
 	public static int solution(String x) {
-		BigInteger pellets = new BigInteger(x);
+		return solution(new BigInteger(x));
+	}
+
+	/**
+	 * Works directly on the bits while the value is too large for a long,
+	 * consuming whole runs of trailing zeros in one shift, then finishes on the long path.
+	 */
+	public static int solution(BigInteger pellets) {
+		return solution(pellets, false);
+	}
+
+	static int solution(BigInteger pellets, boolean memo) {
 		int steps = 0;
-		while (!pellets.equals(one)) {
-			steps++;
-			if (pellets.mod(two).intValue() == 0) {
-				pellets = pellets.divide(two);
+		while (pellets.bitLength() > 63) {
+			if (!pellets.testBit(0)) {
+				int zeros = pellets.getLowestSetBit();
+				pellets = pellets.shiftRight(zeros);
+				steps += zeros;
 			} else {
-				BigInteger up = pellets.add(one);
-				BigInteger down = pellets.subtract(one);
-				int ac = 0, bc = 0;
-				while (up.mod(two).intValue() == 0) {
-					up = up.divide(two);
-					ac += 1;
-				}
-				while (down.mod(two).intValue() == 0) {
-					down = down.divide(two);
-					bc += 1;
-				}
-				if (ac > bc && pellets.compareTo(three) != 0) pellets = pellets.add(one);
-				else pellets = pellets.subtract(one);
+				pellets = pellets.testBit(1) ? pellets.add(BigInteger.ONE) : pellets.subtract(BigInteger.ONE);
+				steps++;
+			}
+		}
+		return steps + (memo ? solutionMemo(pellets.longValue()) : solution(pellets.longValue()));
+	}
+
+	/**
+	 * The same walk as {@link #solution(BigInteger)}, for values that fit in 63 bits.
+	 * Adding one to 2^63 - 1 wraps to Long.MIN_VALUE, which still reads correctly as 2^63 with unsigned shifts.
+	 */
+	public static int solution(long pellets) {
+		if (pellets == 0) return 1; //The only way out of zero is to add one.
+		int steps = 0;
+		while (pellets != 1) {
+			if ((pellets & 1) == 0) {
+				int zeros = Long.numberOfTrailingZeros(pellets);
+				pellets >>>= zeros;
+				steps += zeros;
+			} else if (pellets == 3) {
+				return steps + 2;
+			} else {
+				pellets += (pellets & 3) == 3 ? 1 : -1;
+				steps++;
 			}
-			if (pellets.equals(one)) break;
 		}
 		return steps;
 	}
 
+	static final int MEMO_BITS = 20;
+	static final int CHUNK = 1 << 14;
+
+	/**
+	 * The step counts of every value below 2^MEMO_BITS, built on first use.
+	 * Each entry only depends on smaller ones, as an odd n moves to n +/- 1 and is then halved, so one forward pass fills it.
+	 */
+	static class Memo {
+		static final byte[] STEPS = build();
+
+		static byte[] build() {
+			byte[] steps = new byte[1 << MEMO_BITS];
+			steps[0] = 1;
+			steps[2] = 1;
+			steps[3] = 2;
+			for (int n = 4; n < steps.length; n++) {
+				if ((n & 1) == 0) steps[n] = (byte) (steps[n >> 1] + 1);
+				else steps[n] = (byte) (steps[((n & 3) == 3 ? n + 1 : n - 1) >> 1] + 2);
+			}
+			return steps;
+		}
+	}
+
+	/**
+	 * The same as {@link #solution(long)}, but finishes with a table lookup once the value drops below 2^MEMO_BITS.
+	 */
+	static int solutionMemo(long pellets) {
+		int steps = 0;
+		while (pellets >>> MEMO_BITS != 0) {
+			if ((pellets & 1) == 0) {
+				int zeros = Long.numberOfTrailingZeros(pellets);
+				pellets >>>= zeros;
+				steps += zeros;
+			} else {
+				pellets += (pellets & 3) == 3 ? 1 : -1;
+				steps++;
+			}
+		}
+		return steps + Memo.STEPS[(int) pellets];
+	}
+
+	/**
+	 * Solves many inputs in parallel chunks on the common fork-join pool.
+	 * Inputs are decimal, or hex with a 0x prefix, and any that fit in a long never become a BigInteger.
+	 * @return The step counts, in the same order as the inputs.
+	 */
+	public static int[] solveAll(String[] inputs) {
+		int[] results = new int[inputs.length];
+		IntStream.range(0, (inputs.length + CHUNK - 1) / CHUNK).parallel().forEach(c -> {
+			for (int i = c * CHUNK; i < Math.min(inputs.length, (c + 1) * CHUNK); i++) {
+				String x = inputs[i];
+				results[i] = fitsLong(x) ? solutionMemo(parseLong(x)) : solution(parseBig(x), true);
+			}
+		});
+		return results;
+	}
+
+	/**
+	 * Solves a stream of whitespace separated inputs, in the same formats as {@link #solveAll(String[])}.
+	 * Inputs are read CHUNK at a time through one reusable token buffer, each chunk is solved in parallel,
+	 * and the step counts are passed to the sink in input order.
+	 */
+	public static void solveAll(InputStream in, IntConsumer sink) throws IOException {
+		StringBuilder token = new StringBuilder();
+		long[] small = new long[CHUNK];
+		BigInteger[] big = new BigInteger[CHUNK];
+		int[] results = new int[CHUNK];
+		int size = 0;
+		byte[] buf = new byte[1 << 16];
+		int read;
+		while ((read = in.read(buf)) != -1) {
+			for (int i = 0; i < read; i++) {
+				if (!Character.isWhitespace(buf[i])) {
+					token.append((char) buf[i]);
+					continue;
+				}
+				if (token.length() == 0) continue;
+				size = addToken(token, small, big, size);
+				if (size == CHUNK) size = flush(small, big, results, size, sink);
+			}
+		}
+		if (token.length() != 0) size = addToken(token, small, big, size);
+		flush(small, big, results, size, sink);
+	}
+
+	private static int addToken(StringBuilder token, long[] small, BigInteger[] big, int size) {
+		if (fitsLong(token)) {
+			small[size] = parseLong(token);
+			big[size] = null;
+		} else big[size] = parseBig(token);
+		token.setLength(0);
+		return size + 1;
+	}
+
+	private static int flush(long[] small, BigInteger[] big, int[] results, int size, IntConsumer sink) {
+		int parts = Math.max(1, Math.min(size, Runtime.getRuntime().availableProcessors() * 4));
+		IntStream.range(0, parts).parallel().forEach(p -> {
+			for (int i = p * size / parts; i < (p + 1) * size / parts; i++)
+				results[i] = big[i] == null ? solutionMemo(small[i]) : solution(big[i], true);
+		});
+		for (int i = 0; i < size; i++)
+			sink.accept(results[i]);
+		return 0;
+	}
+
+	static boolean isHex(CharSequence x) {
+		return x.length() > 2 && x.charAt(0) == '0' && (x.charAt(1) == 'x' || x.charAt(1) == 'X');
+	}
+
+	/**
+	 * If the input has few enough digits that it can't overflow a long.
+	 */
+	static boolean fitsLong(CharSequence x) {
+		return isHex(x) ? x.length() - 2 <= 15 : x.length() <= 18;
+	}
+
+	static long parseLong(CharSequence x) {
+		int radix = isHex(x) ? 16 : 10;
+		long value = 0;
+		for (int i = radix == 16 ? 2 : 0; i < x.length(); i++) {
+			int digit = Character.digit(x.charAt(i), radix);
+			if (digit < 0) throw new NumberFormatException("For input string: \"" + x + "\"");
+			value = value * radix + digit;
+		}
+		return value;
+	}
+
+	static BigInteger parseBig(CharSequence x) {
+		return isHex(x) ? new BigInteger(x.subSequence(2, x.length()).toString(), 16) : new BigInteger(x.toString());
+	}
+
 }
@@ -1,9 +1,7 @@
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 /**
  * @author Brennan Ward
@@ -30,29 +28,107 @@ public class GunGuardFight {
 	 * @return How many shots can be made at the guard.
 	 */
 	public static int solution(int[] dimensions, int[] ourPos, int[] guardPos, int distance) {
-		List<int[]> positions = mirrorRoom(dimensions, ourPos, guardPos, distance);
-		positions = positions.stream().filter(pos -> distSq(ourPos[0], ourPos[1], pos[0], pos[1]) <= distance * distance).collect(Collectors.toList());
-
-		//So now we have all positions within range, but we need to keep only the closest entity per angle.
-
-		Map<Double, int[]> uniques = new HashMap<>();
-
-		for (int[] pos : positions) {
-			if (pos[0] == ourPos[0] && pos[1] == ourPos[1]) continue;
-			double angle = Math.atan2(pos[0] - ourPos[0], pos[1] - ourPos[1]);
-			if (!uniques.containsKey(angle)) {
-				uniques.put(angle, pos);
-			} else {
-				int[] existing = uniques.get(angle);
-				int distSqEx = distSq(existing[0], existing[1], ourPos[0], ourPos[1]);
-				int distSqNew = distSq(pos[0], pos[1], ourPos[0], ourPos[1]);
-				if (distSqEx > distSqNew) {
-					uniques.put(angle, pos);
-				}
+		//We only need to keep the closest entity in range per direction.
+		//Directions are keyed exactly, as the offset reduced by its gcd, and the closest entity is kept as distSq * 2 + id.
+		//All geometry is done in longs, as room coordinates and squared distances can overflow an int for large rooms and ranges.
+		LongLongMap closest = new LongLongMap(estimateImages(dimensions, distance));
+		forEachImage(dimensions, ourPos, guardPos, distance, (x, y, id) -> putImage(closest, ourPos, x, y, id));
+		return countShots(closest);
+	}
+
+	/**
+	 * Parallel version of {@link #solution}, for very large distances.
+	 * The columns of tiles are split across the common fork-join pool, and each worker fills its own direction map.
+	 * The maps are then merged keeping the closest entity per direction, so the answer is identical to the sequential one.
+	 */
+	public static int solutionParallel(int[] dimensions, int[] ourPos, int[] guardPos, int distance) {
+		LongLongMap closest = LongStream.rangeClosed(firstColumn(dimensions, ourPos, distance), lastColumn(dimensions, ourPos, distance)).parallel().collect(() -> new LongLongMap(0), (map, col) -> {
+			forEachImage(dimensions, ourPos, guardPos, distance, col, (x, y, id) -> putImage(map, ourPos, x, y, id));
+		}, LongLongMap::putAllMin);
+		return countShots(closest);
+	}
+
+	/**
+	 * Answers the same room and position against many guards, enumerating our own mirrored images only once.
+	 * Our closest image per direction is shared by every query, and each guard's images are then walked into one reused map,
+	 * so memory stays proportional to the images of a single query however many guards there are.
+	 * A guard hits along a direction when its closest image is closer than any of our own.
+	 * @param directions If the reduced direction vectors of the hits should be returned as well.
+	 * @return The results, in the same order as the guards.
+	 */
+	public static List<ShotResult> solveGuards(int[] dimensions, int[] ourPos, int[][] guardPos, int distance, boolean directions) {
+		LongLongMap self = new LongLongMap(estimateImages(dimensions, distance) / 2);
+		forEachImage(dimensions, ourPos, new int[][] { ourPos }, distance, (x, y, id) -> putImage(self, ourPos, x, y, 0));
+
+		LongLongMap guard = new LongLongMap(0);
+		List<ShotResult> results = new ArrayList<>(guardPos.length);
+		for (int[] pos : guardPos) {
+			guard.clear();
+			forEachImage(dimensions, ourPos, new int[][] { pos }, distance, (x, y, id) -> putImage(guard, ourPos, x, y, 0));
+			List<int[]> hits = directions ? new ArrayList<>() : null;
+			int shots = 0;
+			for (int i = 0; i < guard.keys.length; i++) {
+				long key = guard.keys[i];
+				if (key == 0 || guard.values[i] >= self.get(key, Long.MAX_VALUE)) continue;
+				shots++;
+				if (directions) hits.add(new int[] { (int) (key >> 32), (int) key });
 			}
+			results.add(new ShotResult(shots, hits));
 		}
+		return results;
+	}
 
-		return (int) uniques.values().stream().filter(a -> a[2] == 1).count();
+	/**
+	 * Answers the same room, position and guard for many laser distances, enumerating the mirrored images once for the longest.
+	 * Shortening the laser never changes which entity is closest along a direction, it only drops directions,
+	 * so the distances of the guard's hits are sorted once and each query is a binary search.
+	 * @return How many shots can be made at the guard, for each distance in order.
+	 */
+	public static int[] solveDistances(int[] dimensions, int[] ourPos, int[] guardPos, int[] distances) {
+		int maxDistance = Arrays.stream(distances).max().orElse(0);
+		LongLongMap closest = new LongLongMap(estimateImages(dimensions, maxDistance));
+		forEachImage(dimensions, ourPos, guardPos, maxDistance, (x, y, id) -> putImage(closest, ourPos, x, y, id));
+
+		long[] hits = new long[countShots(closest)];
+		int n = 0;
+		for (int i = 0; i < closest.keys.length; i++) {
+			if (closest.keys[i] != 0 && (closest.values[i] & 1) == 1) hits[n++] = closest.values[i] >> 1;
+		}
+		Arrays.sort(hits);
+
+		int[] shots = new int[distances.length];
+		for (int q = 0; q < distances.length; q++) {
+			long limit = (long) distances[q] * distances[q];
+			int lo = 0, hi = hits.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (hits[mid] <= limit) lo = mid + 1;
+				else hi = mid;
+			}
+			shots[q] = lo;
+		}
+		return shots;
+	}
+
+	/**
+	 * Records an image in the direction map, unless it sits exactly on us.
+	 */
+	static void putImage(LongLongMap closest, int[] us, long x, long y, int id) {
+		long dx = x - us[0], dy = y - us[1];
+		if (dx == 0 && dy == 0) return;
+		long gcd = gcd(Math.abs(dx), Math.abs(dy));
+		closest.putMin(directionKey(dx / gcd, dy / gcd), distSq(us[0], us[1], x, y) * 2 + id);
+	}
+
+	/**
+	 * Counts the directions where the guard is the closest entity.
+	 */
+	static int countShots(LongLongMap closest) {
+		int shots = 0;
+		for (int i = 0; i < closest.keys.length; i++) {
+			if (closest.keys[i] != 0 && (closest.values[i] & 1) == 1) shots++;
+		}
+		return shots;
 	}
 
 	/**
@@ -60,52 +136,197 @@ public class GunGuardFight {
 	 * the guard might be.  By creating mirrors of the room, we can emulate the laser
 	 * boucing off the wall, which allows us to compute the possible shots in a reasonable time.
 	 * 
-	 * Returns a list of all positions of mirrored versions of us and the guard.
-	 * The int arrays are 3-length, the 3rd index is an id.  We have id=0.
+	 * The mirrored rooms form a lattice of tiles, where tile (i, j) holds a copy of us and the guard,
+	 * reflected along x if i is odd, and along y if j is odd.  Tile (0, 0) is the real room.
+	 * Each image within dist of us is passed to the sink as it is found, so nothing is materialised.
+	 * Columns of tiles are walked left to right, and each column only visits the rows that the remaining distance can reach,
+	 * with the tile ranges found exactly by integer division, so the work done scales with the number of images in range.
+	 * We have id=0, and the guard has id=1.
 	 */
-	public static List<int[]> mirrorRoom(int[] dim, int[] us, int[] guard, int dist) {
-		int xMax = us[0] + dist;
-		int yMax = us[1] + dist;
-		//We need to create this many copies of the room along these axis.
-		int xExpansions = (int) Math.ceil(Math.log10((double) xMax / dim[0]) / Math.log10(2));
-		int yExpansions = (int) Math.ceil(Math.log10((double) yMax / dim[1]) / Math.log10(2));
-		List<int[]> firstQuad = new ArrayList<>();
-		//We need to calculate in all 4 directions, but mirrors along the first quadrant
-		//are easiest, and we can then do a single mirror of the entire list for the rest.
-		firstQuad.add(new int[] { us[0], us[1], 0 }); //We have id=0
-		firstQuad.add(new int[] { guard[0], guard[1], 1 }); //Guards have id=1
-		int height = dim[1];
-		for (int i = 0; i < yExpansions; i++) {
-			List<int[]> temp = new LinkedList<>();
-			for (int[] pos : firstQuad) {
-				temp.add(new int[] { pos[0], -(pos[1] - height) + height, pos[2] });
-			}
-			firstQuad.addAll(temp);
-			height *= 2;
+	public static void forEachImage(int[] dim, int[] us, int[] guard, int dist, ImageSink sink) {
+		forEachImage(dim, us, new int[][] { us, guard }, dist, sink);
+	}
+
+	/**
+	 * Passes every image within dist of us in a single column of tiles to the sink.
+	 */
+	public static void forEachImage(int[] dim, int[] us, int[] guard, int dist, long col, ImageSink sink) {
+		forEachImage(dim, us, new int[][] { us, guard }, dist, col, sink);
+	}
+
+	/**
+	 * Passes every image of any number of entities within dist of us to the sink,
+	 * where the id of an image is the index of its entity.
+	 */
+	public static void forEachImage(int[] dim, int[] us, int[][] entities, int dist, ImageSink sink) {
+		long lastCol = lastColumn(dim, us, dist);
+		for (long i = firstColumn(dim, us, dist); i <= lastCol; i++) {
+			forEachImage(dim, us, entities, dist, i, sink);
 		}
+	}
 
-		int width = dim[0];
-		for (int i = 0; i < xExpansions; i++) {
-			List<int[]> temp = new LinkedList<>();
-			for (int[] pos : firstQuad) {
-				temp.add(new int[] { -(pos[0] - width) + width, pos[1], pos[2] });
+	public static void forEachImage(int[] dim, int[] us, int[][] entities, int dist, long col, ImageSink sink) {
+		long distSq = (long) dist * dist;
+		for (int id = 0; id < entities.length; id++) {
+			long x = mirror(col, dim[0], entities[id][0]);
+			long dx = x - us[0];
+			//dx can reach dist + dim[0], so it is bounded before squaring to keep dx * dx below 2^62.
+			if (Math.abs(dx) > dist) continue;
+			long reach = isqrt(distSq - dx * dx);
+			long lastRow = Math.floorDiv(us[1] + reach, dim[1]);
+			for (long j = Math.floorDiv(us[1] - reach, dim[1]); j <= lastRow; j++) {
+				long y = mirror(j, dim[1], entities[id][1]);
+				if (Math.abs(y - us[1]) <= reach) sink.accept(x, y, id);
 			}
-			firstQuad.addAll(temp);
-			width *= 2;
 		}
+	}
 
-		List<int[]> positions = new ArrayList<>();
-		for (int[] pos : firstQuad) {
-			positions.add(pos);
-			positions.add(new int[] { pos[0] * -1, pos[1], pos[2] });
-			positions.add(new int[] { pos[0] * -1, pos[1] * -1, pos[2] });
-			positions.add(new int[] { pos[0], pos[1] * -1, pos[2] });
-		}
-		return positions;
+	static long firstColumn(int[] dim, int[] us, int dist) {
+		return Math.floorDiv((long) us[0] - dist, dim[0]);
+	}
+
+	static long lastColumn(int[] dim, int[] us, int dist) {
+		return Math.floorDiv((long) us[0] + dist, dim[0]);
+	}
+
+	/**
+	 * Finds where a coordinate lands along one axis in the given tile.
+	 */
+	static long mirror(long tile, int size, int pos) {
+		return tile * size + ((tile & 1) == 0 ? pos : size - pos);
 	}
 
-	public static int distSq(int x1, int y1, int x2, int y2) {
+	/**
+	 * Roughly how many images forEachImage will produce, used to presize the direction map.
+	 */
+	static int estimateImages(int[] dim, int dist) {
+		long cols = 2L * dist / dim[0] + 2, rows = 2L * dist / dim[1] + 2;
+		return (int) Math.min(2 * cols * rows, 1 << 24);
+	}
+
+	/**
+	 * Floor of the square root, corrected for any rounding error in Math.sqrt.
+	 */
+	static long isqrt(long n) {
+		long r = (long) Math.sqrt((double) n);
+		while (r * r > n)
+			r--;
+		while ((r + 1) * (r + 1) <= n)
+			r++;
+		return r;
+	}
+
+	@FunctionalInterface
+	public interface ImageSink {
+		void accept(long x, long y, int id);
+	}
+
+	public static long distSq(long x1, long y1, long x2, long y2) {
 		return (x2 - x1) * (x2 - x1) + (y2 - y1) * (y2 - y1);
 	}
 
+	public static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/**
+	 * Packs a reduced direction into a single long, x in the high half and y in the low half.
+	 * Each component is at most the laser distance, so it always fits in an int.
+	 * As (0, 0) is never a direction, a key of 0 is never produced.
+	 */
+	public static long directionKey(long x, long y) {
+		return x << 32 | (y & 0xFFFFFFFFL);
+	}
+
+	public static class ShotResult {
+		public final int shots;
+		public final List<int[]> directions;
+
+		public ShotResult(int shots, List<int[]> directions) {
+			this.shots = shots;
+			this.directions = directions;
+		}
+	}
+
+	/**
+	 * An open-addressing (linear probing) map from long keys to long values, which only ever keeps the smallest value per key.
+	 * The key 0 is reserved to mark empty slots.
+	 */
+	public static class LongLongMap {
+		long[] keys;
+		long[] values;
+		int size;
+
+		public LongLongMap(int expected) {
+			int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+			this.keys = new long[capacity];
+			this.values = new long[capacity];
+		}
+
+		public void putMin(long key, long value) {
+			int mask = this.keys.length - 1;
+			int i = slot(key, mask);
+			while (this.keys[i] != 0) {
+				if (this.keys[i] == key) {
+					if (value < this.values[i]) this.values[i] = value;
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+			this.keys[i] = key;
+			this.values[i] = value;
+			if (++this.size * 2 > this.keys.length) grow();
+		}
+
+		public long get(long key, long missing) {
+			int mask = this.keys.length - 1;
+			for (int i = slot(key, mask); this.keys[i] != 0; i = (i + 1) & mask) {
+				if (this.keys[i] == key) return this.values[i];
+			}
+			return missing;
+		}
+
+		/**
+		 * Empties the map, keeping its capacity.
+		 */
+		public void clear() {
+			Arrays.fill(this.keys, 0);
+			this.size = 0;
+		}
+
+		/**
+		 * Merges another map into this one, keeping the smallest value per key.
+		 */
+		public void putAllMin(LongLongMap other) {
+			for (int i = 0; i < other.keys.length; i++) {
+				if (other.keys[i] != 0) this.putMin(other.keys[i], other.values[i]);
+			}
+		}
+
+		static int slot(long key, int mask) {
+			return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+		}
+
+		private void grow() {
+			long[] oldKeys = this.keys;
+			long[] oldValues = this.values;
+			this.keys = new long[oldKeys.length * 2];
+			this.values = new long[oldValues.length * 2];
+			int mask = this.keys.length - 1;
+			for (int j = 0; j < oldKeys.length; j++) {
+				if (oldKeys[j] == 0) continue;
+				int i = slot(oldKeys[j], mask);
+				while (this.keys[i] != 0)
+					i = (i + 1) & mask;
+				this.keys[i] = oldKeys[j];
+				this.values[i] = oldValues[j];
+			}
+		}
+	}
+
 }